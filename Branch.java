@@ -7,6 +7,10 @@ import java.io.Serializable;
  */
 public class Branch implements Serializable {
 
+    /** Serialization version, fixed so that branches stored in legacy
+     *  management files remain readable. */
+    private static final long serialVersionUID = -5768051736119802317L;
+
     /** Name of the branch. */
     private String _name;
 
@@ -38,6 +42,20 @@ public class Branch implements Serializable {
         return _head;
     }
 
+    /** Writes the binary encoding of this branch to OUT.
+     */
+    void encode(Codec.Output out) {
+        out.writeString(_name);
+        out.writeOptionalHash(_head);
+    }
+
+    /** Returns the branch whose encoding is read from IN.
+     */
+    static Branch decode(Codec.Input in) {
+        String name = in.readString();
+        return new Branch(name, in.readOptionalHash());
+    }
+
     @Override
     public String toString() {
         return "Branch " + _name;
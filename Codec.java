@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Primitives of the binary format in which gitlet stores commits,
+ *  trees and management files. Every encoded object starts with a magic
+ *  byte, a type byte and a format version; strings are length-prefixed
+ *  UTF-8, hashes are stored as their 20 raw bytes and integers as
+ *  variable-length quantities. Objects written by older versions of
+ *  gitlet use Java serialization and are recognized by its stream
+ *  header.
+ *  @author Philipp
+ */
+class Codec {
+
+    /** First byte of every encoded object. */
+    private static final int MAGIC = 'G';
+
+    /** Version of the format written by this codec. */
+    static final int VERSION = 1;
+
+    /** First two bytes of a Java serialization stream. */
+    private static final int LEGACY_MAGIC = 0xaced;
+
+    /** Length of a raw hash in bytes. */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Returns true iff BYTES were written with Java serialization. */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2
+                && ((bytes[0] & 0xff) << 8 | (bytes[1] & 0xff)) == LEGACY_MAGIC;
+    }
+
+    /** Returns a new output stream that collects the encoding of an
+     *  object of type TYPE, starting with its header. */
+    static Output newOutput(char type) {
+        Output out = new Output();
+        out.writeByte(MAGIC);
+        out.writeByte(type);
+        out.writeVarLong(VERSION);
+        return out;
+    }
+
+    /** Returns a new input stream over BYTES, which must hold an object
+     *  of type TYPE, positioned after its header. Throws
+     *  IllegalArgumentException if the header does not match. */
+    static Input newInput(byte[] bytes, char type) {
+        Input in = new Input(bytes);
+        if (in.readByte() != MAGIC || in.readByte() != type
+                || in.readVarLong() != VERSION) {
+            throw new IllegalArgumentException("unknown object format");
+        }
+        return in;
+    }
+
+    /** Output stream for the binary format. */
+    static class Output {
+        /** Bytes written so far. */
+        private ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+
+        /** Writes the low eight bits of B. */
+        void writeByte(int b) {
+            _bytes.write(b);
+        }
+
+        /** Writes the non-negative VALUE as a variable-length quantity
+         *  of seven bits per byte. */
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        /** Writes VALUE, which may be negative, as a variable-length
+         *  quantity. */
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /** Writes the string S, which may be null. */
+        void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] raw = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(raw.length + 1);
+            _bytes.write(raw, 0, raw.length);
+        }
+
+        /** Writes the hexadecimal hash HASH as raw bytes. */
+        void writeHash(String hash) {
+            byte[] raw = Utils.hexToBytes(hash);
+            _bytes.write(raw, 0, raw.length);
+        }
+
+        /** Writes the hash HASH, which may be null. */
+        void writeOptionalHash(String hash) {
+            writeByte(hash == null ? 0 : 1);
+            if (hash != null) {
+                writeHash(hash);
+            }
+        }
+
+        /** Returns all bytes written. */
+        byte[] toByteArray() {
+            return _bytes.toByteArray();
+        }
+    }
+
+    /** Input stream for the binary format. */
+    static class Input {
+        /** Stream over the encoded bytes. */
+        private DataInputStream _in;
+
+        /** Creates new input stream over BYTES. */
+        Input(byte[] bytes) {
+            _in = new DataInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        /** Returns the next byte as an unsigned value. */
+        int readByte() {
+            try {
+                return _in.readUnsignedByte();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException("truncated object");
+            }
+        }
+
+        /** Reads a non-negative variable-length quantity. */
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+        }
+
+        /** Reads a variable-length quantity that may be negative. */
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /** Reads a variable-length quantity that must fit into an int. */
+        int readCount() {
+            long value = readVarLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("corrupt object");
+            }
+            return (int) value;
+        }
+
+        /** Reads N raw bytes. */
+        private byte[] readBytes(int n) {
+            byte[] raw = new byte[n];
+            try {
+                _in.readFully(raw);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException("truncated object");
+            }
+            return raw;
+        }
+
+        /** Reads a string, which may be null. */
+        String readString() {
+            int length = readCount();
+            if (length == 0) {
+                return null;
+            }
+            return new String(readBytes(length - 1), StandardCharsets.UTF_8);
+        }
+
+        /** Reads a hash. */
+        String readHash() {
+            return Utils.bytesToHex(readBytes(HASH_BYTES));
+        }
+
+        /** Reads a hash, which may be null. */
+        String readOptionalHash() {
+            return readByte() == 0 ? null : readHash();
+        }
+    }
+}
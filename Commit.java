@@ -3,8 +3,12 @@ package gitlet;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.Formatter;
 
 /** Commit class for gitlet.
@@ -12,6 +16,13 @@ import java.util.Formatter;
  */
 public class Commit implements Serializable {
 
+    /** Serialization version, fixed so that commits written before
+     *  transient fields were added remain readable. */
+    private static final long serialVersionUID = 8139570008387994848L;
+
+    /** Type byte of encoded commits. */
+    private static final char TYPE = 'C';
+
     /** Message of commit. */
     private String _message;
 
@@ -21,14 +32,27 @@ public class Commit implements Serializable {
     /** List of commit's parents commits. */
     private List<String> _parents;
 
-    /** List of files that are tracked by this commit. */
+    /** List of files that are tracked by this commit. Only used by
+     *  commits written before tree objects existed. */
     private List<FileToShaMapping> _trackedFiles;
 
+    /** Hash of the root tree of this commit, or null for commits that
+     *  list their tracked files directly. */
+    private String _tree;
+
+    /** Tracked files by file name, built on first use. */
+    private transient Map<String, FileToShaMapping> _fileIndex;
+
+    /** Root tree of this commit, read on first use. */
+    private transient Tree _root;
+
+    /** Root tree built from _trackedFiles for commits without _tree. */
+    private transient String _legacyTree;
+
     /** Creates new commit with commit message MESSAGE. */
     public Commit(String message) {
         _message = message;
         _timestamp = new Date();
-        _trackedFiles = new ArrayList<FileToShaMapping>();
     }
 
     /** Creates new commit with commit message MESSAGE and
@@ -48,36 +72,65 @@ public class Commit implements Serializable {
     /** Returns list of files that are tracked in this commit.
      */
     public List<FileToShaMapping> getTrackedFiles() {
+        if (_tree != null) {
+            return new ArrayList<FileToShaMapping>(getFileIndex().values());
+        }
         if (_trackedFiles == null) {
             _trackedFiles = new ArrayList<FileToShaMapping>();
         }
         return _trackedFiles;
     }
 
-    /** Sets list of tracked files to list PREVIOUS.
+    /** Returns the table of tracked files by file name.
      */
-    public void setTrackedFiles(List<FileToShaMapping> previous) {
-        _trackedFiles = previous;
+    private Map<String, FileToShaMapping> getFileIndex() {
+        if (_fileIndex == null) {
+            _fileIndex = new LinkedHashMap<String, FileToShaMapping>();
+            if (_tree != null) {
+                Map<String, String> files = new TreeMap<String, String>();
+                Tree.flatten(Main.getTreeStore(), _tree, "", files);
+                for (Map.Entry<String, String> file : files.entrySet()) {
+                    _fileIndex.put(file.getKey(),
+                        new FileToShaMapping(file.getKey(), file.getValue()));
+                }
+            } else {
+                for (FileToShaMapping mapping : getTrackedFiles()) {
+                    _fileIndex.put(mapping.getFilename(), mapping);
+                }
+            }
+        }
+        return _fileIndex;
     }
 
-    /** Update tracked file FILENAME in this commit with commit hash HASH.
+    /** Returns true iff this commit refers to a root tree rather than
+     *  listing its tracked files directly.
      */
-    public void updateTrackedFile(String filename, String hash) {
-        boolean existing = false;
-        if (_trackedFiles == null) {
-            _trackedFiles = new ArrayList<FileToShaMapping>();
-        } else {
-            for (FileToShaMapping mapping : _trackedFiles) {
-                if (mapping.getFilename().equals(filename)) {
-                    mapping.setHash(hash);
-                    existing = true;
-                    break;
-                }
-            }
+    public boolean hasTree() {
+        return _tree != null;
+    }
+
+    /** Sets the root tree of this commit to HASH.
+     */
+    public void setTree(String hash) {
+        _tree = hash;
+    }
+
+    /** Returns the hash of this commit's root tree. For commits that
+     *  list their tracked files directly, the tree is built from that
+     *  list.
+     */
+    public String getTree() {
+        if (_tree != null) {
+            return _tree;
         }
-        if (!existing) {
-            _trackedFiles.add(new FileToShaMapping(filename, hash));
+        if (_legacyTree == null) {
+            SortedMap<String, String> files = new TreeMap<String, String>();
+            for (FileToShaMapping mapping : getTrackedFiles()) {
+                files.put(mapping.getFilename(), mapping.getHash());
+            }
+            _legacyTree = Tree.update(Main.getTreeStore(), null, files);
         }
+        return _legacyTree;
     }
 
     /** Adds parent COMMITHASH to this commit.
@@ -89,19 +142,10 @@ public class Commit implements Serializable {
         _parents.add(commitHash);
     }
 
-    /** Remove file FILENAME from this commit's tracking.
+    /** Returns this commit's timestamp in milliseconds.
      */
-    public void removeTracking(String filename) {
-        int index = -1;
-        for (int i = 0; i < _trackedFiles.size(); i++) {
-            if (_trackedFiles.get(i).getFilename().equals(filename)) {
-                index = i;
-                break;
-            }
-        }
-        if (index > -1) {
-            _trackedFiles.remove(index);
-        }
+    public long getTimestamp() {
+        return _timestamp.getTime();
     }
 
     /** Returns date string from this commit's timestamp.
@@ -142,14 +186,27 @@ public class Commit implements Serializable {
     /** Returns FileToShaMapping for file FILENAME from this commit.
      */
     public FileToShaMapping getMapping(String filename) {
-        FileToShaMapping res = null;
-        for (FileToShaMapping map : _trackedFiles) {
-            if (map.getFilename().equals(filename)) {
-                res = map;
-                break;
+        if (_fileIndex == null && _tree != null) {
+            if (_root == null) {
+                _root = Tree.read(Main.getTreeStore(), _tree);
             }
+            String hash = _root.find(filename);
+            return hash == null ? null : new FileToShaMapping(filename, hash);
+        }
+        return getFileIndex().get(filename);
+    }
+
+    /** Returns the weight of this commit in a cache: one for the commit
+     *  itself plus one for every tracked file it holds in memory.
+     */
+    public int getWeight() {
+        int files = 0;
+        if (_fileIndex != null) {
+            files = _fileIndex.size();
+        } else if (_trackedFiles != null) {
+            files = _trackedFiles.size();
         }
-        return res;
+        return 1 + files;
     }
 
     /** Returns true iff this commit is a merge commit.
@@ -158,4 +215,51 @@ public class Commit implements Serializable {
         return _parents != null && _parents.size() > 1;
     }
 
+    /** Returns the binary encoding of this commit.
+     */
+    public byte[] encode() {
+        Codec.Output out = Codec.newOutput(TYPE);
+        out.writeString(_message);
+        out.writeSignedVarLong(_timestamp.getTime());
+        int numParents = _parents == null ? 0 : _parents.size();
+        out.writeVarLong(numParents);
+        for (int i = 0; i < numParents; i += 1) {
+            out.writeHash(_parents.get(i));
+        }
+        out.writeOptionalHash(_tree);
+        int numFiles = _trackedFiles == null ? 0 : _trackedFiles.size();
+        out.writeVarLong(numFiles);
+        for (int i = 0; i < numFiles; i += 1) {
+            out.writeString(_trackedFiles.get(i).getFilename());
+            out.writeHash(_trackedFiles.get(i).getHash());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the commit encoded in BYTES, which may also hold a commit
+     *  written with Java serialization.
+     */
+    public static Commit decode(byte[] bytes) {
+        if (Codec.isLegacy(bytes)) {
+            return Utils.deserialize(bytes, Commit.class);
+        }
+        Codec.Input in = Codec.newInput(bytes, TYPE);
+        String message = in.readString();
+        Commit comm = new Commit(message, in.readSignedVarLong());
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            comm.addParent(in.readHash());
+        }
+        comm._tree = in.readOptionalHash();
+        int numFiles = in.readCount();
+        if (numFiles > 0) {
+            comm._trackedFiles = new ArrayList<FileToShaMapping>();
+            for (int i = 0; i < numFiles; i += 1) {
+                String filename = in.readString();
+                comm._trackedFiles.add(
+                        new FileToShaMapping(filename, in.readHash()));
+            }
+        }
+        return comm;
+    }
+
 }
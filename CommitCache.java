@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Commit cache class for gitlet. Keeps recently used commits in memory
+ *  in least-recently-used order, bounded by their total weight so that
+ *  commits with many tracked files count for more than small ones. The
+ *  cache lives as long as the process, so a long-running gitlet reuses
+ *  it across commands.
+ *  @author Philipp
+ */
+public class CommitCache {
+
+    /** Commits by hash in access order. */
+    private LinkedHashMap<String, Commit> _commits;
+
+    /** Weight of every cached commit at the time it was last counted. */
+    private Map<String, Integer> _weights;
+
+    /** Maximum total weight. */
+    private long _capacity;
+
+    /** Current total weight. */
+    private long _weight;
+
+    /** Number of lookups that found their commit. */
+    private long _hits;
+
+    /** Number of lookups that did not find their commit. */
+    private long _misses;
+
+    /** Creates new empty cache of total weight at most CAPACITY. */
+    public CommitCache(long capacity) {
+        _capacity = capacity;
+        _commits = new LinkedHashMap<String, Commit>(16, 0.75f, true);
+        _weights = new LinkedHashMap<String, Integer>();
+    }
+
+    /** Returns the commit HASH, or null if it is not cached. */
+    public synchronized Commit get(String hash) {
+        Commit comm = _commits.get(hash);
+        if (comm == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        reweigh(hash, comm);
+        return comm;
+    }
+
+    /** Caches commit COMM under HASH. */
+    public synchronized void put(String hash, Commit comm) {
+        if (_commits.put(hash, comm) == null) {
+            _weights.put(hash, 0);
+        }
+        reweigh(hash, comm);
+    }
+
+    /** Updates the recorded weight of commit COMM with hash HASH, whose
+     *  file table may have been built since it was last counted, and
+     *  evicts the least recently used commits while the cache is too
+     *  heavy. The most recently used commit is never evicted. */
+    private void reweigh(String hash, Commit comm) {
+        int weight = comm.getWeight();
+        _weight += weight - _weights.put(hash, weight);
+        Iterator<String> lru = _commits.keySet().iterator();
+        while (_weight > _capacity && _commits.size() > 1) {
+            String victim = lru.next();
+            lru.remove();
+            _weight -= _weights.remove(victim);
+        }
+    }
+
+    /** Returns the number of cached commits. */
+    public synchronized int size() {
+        return _commits.size();
+    }
+
+    /** Returns the total weight of the cached commits. */
+    public synchronized long getWeight() {
+        return _weight;
+    }
+
+    /** Returns the maximum total weight of the cached commits. */
+    public long getCapacity() {
+        return _capacity;
+    }
+
+    /** Returns the number of lookups that found their commit. */
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    /** Returns the number of lookups that did not find their commit. */
+    public synchronized long getMisses() {
+        return _misses;
+    }
+}
@@ -0,0 +1,620 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/** Commit graph class for gitlet. The commit graph is a file with one
+ *  fixed-size record per commit holding its id, the positions of its
+ *  parents within the file, its generation number and its timestamp.
+ *  Ancestry questions can thus be answered by following integer
+ *  positions through the memory-mapped file instead of reading and
+ *  decoding commit objects. A commit's generation is one more than the
+ *  largest generation of its parents, so a commit can only be an
+ *  ancestor of commits with a larger generation. Records are only ever
+ *  appended, and commits missing from the graph are added on demand.
+ *  Commits are found by id through a separate lookup file that, like a
+ *  pack index, holds a fan-out table over the first id byte followed by
+ *  the positions of the records sorted by id. Records appended since
+ *  the lookup file was written are searched in memory, and the lookup
+ *  file is only rewritten once there are many of them.
+ *  @author Philipp
+ */
+public class CommitGraph {
+
+    /** Magic number at the start of the commit graph file ("GLCG"). */
+    private static final int MAGIC = 0x474c4347;
+
+    /** Version of the commit graph format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header (magic, version, count). */
+    private static final int HEADER = 12;
+
+    /** Length of a raw commit id in bytes. */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Size of one record: id, two parent positions, generation and
+     *  timestamp. Gitlet commits have at most two parents. */
+    private static final int RECORD = ID_BYTES + 3 * 4 + 8;
+
+    /** Parent position of a missing parent. */
+    public static final int NONE = -1;
+
+    /** Magic number at the start of the lookup file ("GLGX"). */
+    private static final int LOOKUP_MAGIC = 0x474c4758;
+
+    /** Number of entries in the fan-out table of the lookup file. */
+    private static final int FANOUT = 256;
+
+    /** Largest number of records missing from the lookup file before
+     *  it is rewritten. */
+    private static final int MAX_UNSORTED = 1024;
+
+    /** Commit graph file. */
+    private File _file;
+
+    /** Store from which missing commits are read. */
+    private ObjectStore _commits;
+
+    /** Memory-mapped contents of the file, or null if it is empty. */
+    private ByteBuffer _mapped;
+
+    /** Number of records in the file. */
+    private int _stored;
+
+    /** Records added since the file was read, in file layout. */
+    private ByteBuffer _added;
+
+    /** Lookup file, which lists the positions of the first _sorted
+     *  records ordered by id. */
+    private File _lookupFile;
+
+    /** Memory-mapped contents of the lookup file, or null if there is
+     *  no usable lookup file. */
+    private ByteBuffer _lookup;
+
+    /** Number of records listed in the lookup file. */
+    private int _sorted;
+
+    /** Positions by id of the records not listed in the lookup file,
+     *  built on first use. */
+    private Map<String, Integer> _unsorted;
+
+    /** Creates new commit graph stored in FILE for the commits in store
+     *  COMMITS. Its lookup file is FILE with the extension .idx. */
+    public CommitGraph(File file, ObjectStore commits) {
+        _file = file;
+        _lookupFile = new File(file.getPath() + PackFile.INDEX_EXT);
+        _commits = commits;
+        load();
+    }
+
+    /** Maps the records of the graph file, ignoring an unreadable file,
+     *  which is then rebuilt from scratch. */
+    private void load() {
+        _mapped = null;
+        _stored = 0;
+        _added = ByteBuffer.allocate(RECORD * 16);
+        _unsorted = null;
+        loadGraph();
+        loadLookup();
+    }
+
+    /** Maps the records of the graph file unless it is unreadable. */
+    private void loadGraph() {
+        if (!_file.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(_file.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) {
+                return;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, HEADER);
+            int count = header.getInt(8);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || channel.size() < HEADER + (long) count * RECORD) {
+                return;
+            }
+            _mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER + (long) count * RECORD);
+            _stored = count;
+        } catch (IOException excp) {
+            _mapped = null;
+            _stored = 0;
+        }
+    }
+
+    /** Maps the lookup file unless it is unreadable or lists more
+     *  records than the graph file holds. */
+    private void loadLookup() {
+        _lookup = null;
+        _sorted = 0;
+        if (!_lookupFile.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(_lookupFile.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) {
+                return;
+            }
+            ByteBuffer lookup = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            int count = lookup.getInt(8);
+            if (lookup.getInt(0) != LOOKUP_MAGIC
+                    || lookup.getInt(4) != VERSION || count < 0
+                    || count > _stored || channel.size()
+                        != HEADER + (FANOUT + (long) count) * 4) {
+                return;
+            }
+            _lookup = lookup;
+            _sorted = count;
+        } catch (IOException excp) {
+            _lookup = null;
+            _sorted = 0;
+        }
+    }
+
+    /** Returns the number of commits in the graph. */
+    public int size() {
+        return _stored + _added.position() / RECORD;
+    }
+
+    /** Returns the buffer holding the record at position POS. */
+    private ByteBuffer buffer(int pos) {
+        return pos < _stored ? _mapped : _added;
+    }
+
+    /** Returns the offset of the record at position POS in its buffer. */
+    private int offset(int pos) {
+        if (pos < _stored) {
+            return HEADER + pos * RECORD;
+        }
+        return (pos - _stored) * RECORD;
+    }
+
+    /** Returns the id of the commit at position POS. */
+    public String getId(int pos) {
+        byte[] raw = new byte[ID_BYTES];
+        buffer(pos).get(offset(pos), raw);
+        return Utils.bytesToHex(raw);
+    }
+
+    /** Returns the position of parent I of the commit at position POS,
+     *  or NONE if it has no such parent. */
+    public int getParent(int pos, int i) {
+        return buffer(pos).getInt(offset(pos) + ID_BYTES + i * 4);
+    }
+
+    /** Returns the generation number of the commit at position POS. */
+    public int getGeneration(int pos) {
+        return buffer(pos).getInt(offset(pos) + ID_BYTES + 8);
+    }
+
+    /** Returns the timestamp in milliseconds of the commit at POS. */
+    public long getTimestamp(int pos) {
+        return buffer(pos).getLong(offset(pos) + ID_BYTES + 12);
+    }
+
+    /** Compares the id of the commit at position POS with RAW in
+     *  unsigned byte order. */
+    private int compareId(int pos, byte[] raw) {
+        ByteBuffer buf = buffer(pos);
+        int base = offset(pos);
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(buf.get(base + i) & 0xff,
+                    raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Compares the ids of the commits at positions X and Y in unsigned
+     *  byte order. */
+    private int compareIds(int x, int y) {
+        byte[] raw = new byte[ID_BYTES];
+        buffer(y).get(offset(y), raw);
+        return compareId(x, raw);
+    }
+
+    /** Returns the number of listed records whose id starts with a byte
+     *  of at most B. */
+    private int fanout(int b) {
+        return b < 0 ? 0 : _lookup.getInt(HEADER + b * 4);
+    }
+
+    /** Returns the position of the I-th listed record in id order. */
+    private int sortedPosition(int i) {
+        return _lookup.getInt(HEADER + (FANOUT + i) * 4);
+    }
+
+    /** Returns the positions by id of the records not listed in the
+     *  lookup file. */
+    private Map<String, Integer> unsorted() {
+        if (_unsorted == null) {
+            _unsorted = new HashMap<String, Integer>();
+            for (int pos = _sorted; pos < size(); pos += 1) {
+                _unsorted.put(getId(pos), pos);
+            }
+        }
+        return _unsorted;
+    }
+
+    /** Returns the position of commit ID, or NONE if it is not in the
+     *  graph. Listed records are binary-searched in the lookup file. */
+    public int find(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return NONE;
+        }
+        if (_lookup != null) {
+            byte[] raw = Utils.hexToBytes(id);
+            int lo = fanout((raw[0] & 0xff) - 1);
+            int hi = fanout(raw[0] & 0xff) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int pos = sortedPosition(mid);
+                int cmp = compareId(pos, raw);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return pos;
+                }
+            }
+        }
+        Integer pos = unsorted().get(id);
+        return pos == null ? NONE : pos;
+    }
+
+    /** Appends the record of commit COMM with id ID, whose parents must
+     *  be in the graph already, and returns its position. */
+    private int append(String id, Commit comm) {
+        int[] parents = new int[2];
+        int generation = 0;
+        for (int i = 0; i < parents.length; i += 1) {
+            parents[i] = comm.getParent(i) == null
+                    ? NONE : find(comm.getParent(i));
+            if (parents[i] != NONE) {
+                generation = Math.max(generation,
+                        getGeneration(parents[i]));
+            }
+        }
+        if (_added.remaining() < RECORD) {
+            ByteBuffer bigger = ByteBuffer.allocate(_added.capacity() * 2);
+            _added.flip();
+            bigger.put(_added);
+            _added = bigger;
+        }
+        int pos = size();
+        _added.put(Utils.hexToBytes(id));
+        _added.putInt(parents[0]).putInt(parents[1]);
+        _added.putInt(generation + 1).putLong(comm.getTimestamp());
+        unsorted().put(id, pos);
+        return pos;
+    }
+
+    /** Adds commit COMM with id ID to the graph unless it is present,
+     *  first adding any of its ancestors that are missing. Returns its
+     *  position. */
+    public int add(String id, Commit comm) {
+        int pos = find(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        for (int i = 0; i < 2; i += 1) {
+            if (comm.getParent(i) != null) {
+                ensure(comm.getParent(i));
+            }
+        }
+        return append(id, comm);
+    }
+
+    /** Returns the position of commit ID, adding it and its missing
+     *  ancestors, read from the commit store, if necessary. */
+    public int ensure(String id) {
+        int pos = find(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        Deque<String> stack = new ArrayDeque<String>();
+        Map<String, Commit> pending = new HashMap<String, Commit>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (find(top) != NONE) {
+                stack.pop();
+                continue;
+            }
+            Commit comm = pending.get(top);
+            if (comm == null) {
+                comm = Commit.decode(_commits.read(top));
+                pending.put(top, comm);
+            }
+            boolean ready = true;
+            for (int i = 0; i < 2; i += 1) {
+                String parent = comm.getParent(i);
+                if (parent != null && find(parent) == NONE) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                pending.remove(top);
+                append(top, comm);
+            }
+        }
+        return find(id);
+    }
+
+    /** Returns the ids of commit HEAD and of all its ancestors that can
+     *  be reached from it without passing through a commit whose id
+     *  satisfies STOP. Those commits are not included themselves. */
+    public List<String> walk(String head, Predicate<String> stop) {
+        List<String> ids = new ArrayList<String>();
+        int start = ensure(head);
+        BitSet seen = new BitSet(size());
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        seen.set(start);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            String id = getId(pos);
+            if (stop.test(id)) {
+                continue;
+            }
+            ids.add(id);
+            for (int i = 0; i < 2; i += 1) {
+                int parent = getParent(pos, i);
+                if (parent != NONE && !seen.get(parent)) {
+                    seen.set(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Returns true iff commit ANCESTOR is commit DESCENDANT or one of
+     *  its ancestors. Commits whose generation is not above that of
+     *  ANCESTOR are not searched any further. */
+    public boolean isAncestor(String ancestor, String descendant) {
+        return isAncestor(ensure(ancestor), ensure(descendant));
+    }
+
+    /** Returns true iff the commit at position TARGET is the commit at
+     *  START or one of its ancestors. */
+    private boolean isAncestor(int target, int start) {
+        int floor = getGeneration(target);
+        BitSet seen = new BitSet(size());
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        seen.set(start);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            int p = queue.poll();
+            if (p == target) {
+                return true;
+            }
+            if (getGeneration(p) <= floor) {
+                continue;
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int parent = getParent(p, i);
+                if (parent != NONE && !seen.get(parent)) {
+                    seen.set(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the ids of all best common ancestors of commits A and B,
+     *  that is, all common ancestors that are not ancestors of another
+     *  common ancestor. There is more than one only for criss-cross
+     *  histories; they are ordered by decreasing generation and
+     *  timestamp. Both histories are walked together, newest commits
+     *  first, and the walk stops as soon as every commit left to visit
+     *  is known to lie below a common ancestor already found. */
+    public List<String> mergeBases(String a, String b) {
+        int posA = ensure(a), posB = ensure(b);
+        List<Integer> bases = new ArrayList<Integer>();
+        if (posA == posB) {
+            bases.add(posA);
+        } else {
+            bases = paintDownToCommon(posA, posB);
+            removeRedundant(bases);
+        }
+        List<String> ids = new ArrayList<String>();
+        for (int pos : bases) {
+            ids.add(getId(pos));
+        }
+        return ids;
+    }
+
+    /** Orders positions by decreasing generation, then timestamp. */
+    private final Comparator<Integer> _newestFirst = (x, y) -> {
+        int cmp = Integer.compare(getGeneration(y), getGeneration(x));
+        if (cmp == 0) {
+            cmp = Long.compare(getTimestamp(y), getTimestamp(x));
+        }
+        return cmp != 0 ? cmp : Integer.compare(x, y);
+    };
+
+    /** Returns the common ancestors of the distinct commits at positions
+     *  A and B that are reached first when walking down from both,
+     *  ordered newest first. Some of them may be ancestors of others. */
+    private List<Integer> paintDownToCommon(int a, int b) {
+        final int fromA = 1, fromB = 2, stale = 4;
+        Map<Integer, Integer> flags = new HashMap<Integer, Integer>();
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+                _newestFirst);
+        Set<Integer> queued = new HashSet<Integer>();
+        flags.put(a, fromA);
+        flags.put(b, fromB);
+        queue.add(a);
+        queue.add(b);
+        queued.add(a);
+        queued.add(b);
+        int active = 2;
+        List<Integer> result = new ArrayList<Integer>();
+        while (active > 0) {
+            int pos = queue.poll();
+            queued.remove(pos);
+            int mark = flags.get(pos);
+            if ((mark & stale) == 0) {
+                active -= 1;
+            }
+            int paint = mark;
+            if ((mark & (fromA | fromB)) == (fromA | fromB)) {
+                if ((mark & stale) == 0) {
+                    result.add(pos);
+                }
+                paint = mark | stale;
+                flags.put(pos, paint);
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int parent = getParent(pos, i);
+                if (parent == NONE) {
+                    continue;
+                }
+                int old = flags.getOrDefault(parent, 0);
+                int painted = old | paint;
+                if (painted == old) {
+                    continue;
+                }
+                flags.put(parent, painted);
+                if (!queued.contains(parent)) {
+                    queued.add(parent);
+                    queue.add(parent);
+                    if ((painted & stale) == 0) {
+                        active += 1;
+                    }
+                } else if ((old & stale) == 0 && (painted & stale) != 0) {
+                    active -= 1;
+                }
+            }
+        }
+        result.sort(_newestFirst);
+        return result;
+    }
+
+    /** Removes from BASES every position that is an ancestor of another
+     *  one. */
+    private void removeRedundant(List<Integer> bases) {
+        for (int i = bases.size() - 1; i >= 0; i -= 1) {
+            for (int j = 0; j < bases.size(); j += 1) {
+                if (i != j && isAncestor(bases.get(i), bases.get(j))) {
+                    bases.remove(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Appends the records added since the graph was read to its file.
+     *  The count in the header is only updated once the records are
+     *  written, so an interrupted write leaves the old graph intact.
+     *  The lookup file is rewritten if it is missing or too many
+     *  records are not listed in it. */
+    public void write() {
+        if (_added.position() == 0) {
+            return;
+        }
+        boolean relist = _lookup == null
+                || size() - _sorted > MAX_UNSORTED;
+        if (_stored == 0) {
+            _lookupFile.delete();
+        }
+        try (FileChannel channel = FileChannel.open(_file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer records = _added.duplicate().flip();
+            long offset = HEADER + (long) _stored * RECORD;
+            while (records.hasRemaining()) {
+                offset += channel.write(records, offset);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size()).flip();
+            channel.write(header, 0);
+            if (relist) {
+                writeLookup();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        load();
+    }
+
+    /** Writes a new lookup file that lists all records of the graph. The
+     *  records listed already are merged with the sorted others, so
+     *  only these are sorted. The file is renamed into place once it is
+     *  complete. */
+    private void writeLookup() throws IOException {
+        List<Integer> rest = new ArrayList<Integer>();
+        for (int pos = _sorted; pos < size(); pos += 1) {
+            rest.add(pos);
+        }
+        rest.sort(this::compareIds);
+        int count = size();
+        ByteBuffer out = ByteBuffer.allocate(HEADER + (FANOUT + count) * 4);
+        out.putInt(LOOKUP_MAGIC).putInt(VERSION).putInt(count);
+        int[] counts = new int[FANOUT];
+        int[] sorted = new int[count];
+        int i = 0, j = 0;
+        for (int k = 0; k < count; k += 1) {
+            if (j >= rest.size() || i < _sorted
+                    && compareIds(sortedPosition(i), rest.get(j)) < 0) {
+                sorted[k] = sortedPosition(i);
+                i += 1;
+            } else {
+                sorted[k] = rest.get(j);
+                j += 1;
+            }
+            counts[buffer(sorted[k]).get(offset(sorted[k])) & 0xff] += 1;
+        }
+        int total = 0;
+        for (int c : counts) {
+            total += c;
+            out.putInt(total);
+        }
+        for (int pos : sorted) {
+            out.putInt(pos);
+        }
+        out.flip();
+        File tmp = File.createTempFile("tmp-", null,
+                _lookupFile.getAbsoluteFile().getParentFile());
+        try {
+            try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+            Files.move(tmp.toPath(), _lookupFile.toPath(), ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/** Daemon class for gitlet. A daemon serves gitlet commands for the
+ *  repository in its working directory over a Unix domain socket in the
+ *  .gitlet directory, so that commands run in a JVM whose classes,
+ *  commit cache and pack indexes are already loaded. A client sends its
+ *  working directory and arguments and receives the output of the
+ *  command. Commands are served one at a time.
+ *  @author Philipp
+ */
+class Daemon {
+
+    /** Name of the socket file within the .gitlet directory. */
+    static final String SOCKET_FILE = "daemon.sock";
+
+    /** Reply sent before the output of a command that is served. */
+    private static final int SERVED = 0;
+
+    /** Reply sent if the daemon does not serve the client's directory. */
+    private static final int DECLINED = 1;
+
+    /** Largest number of arguments a client may send. */
+    private static final int MAX_ARGS = 1 << 20;
+
+    /** Returns the working directory of this process. */
+    private static String workingDir() {
+        return new File("").getAbsolutePath();
+    }
+
+    /** Returns the address of the socket file SOCKET. */
+    private static UnixDomainSocketAddress address(File socket) {
+        return UnixDomainSocketAddress.of(socket.toPath());
+    }
+
+    /** Runs the command ARGS in the daemon listening on SOCKET, if any,
+     *  and copies its output to standard output. Returns false if there
+     *  is no daemon or it does not serve this working directory, in
+     *  which case the command has not been run. Once the daemon has
+     *  accepted the command, it has been run, so true is returned even
+     *  if the connection fails before all of its output has arrived;
+     *  the failure is reported on standard error. */
+    static boolean forward(File socket, String... args) {
+        if (!socket.exists()) {
+            return false;
+        }
+        boolean served = false;
+        try (SocketChannel channel = SocketChannel.open(address(socket))) {
+            DataOutputStream out = new DataOutputStream(
+                    Channels.newOutputStream(channel));
+            out.writeUTF(workingDir());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            InputStream in = Channels.newInputStream(channel);
+            if (in.read() != SERVED) {
+                return false;
+            }
+            served = true;
+            in.transferTo(System.out);
+        } catch (IOException excp) {
+            if (served) {
+                System.err.println("Lost connection to the Gitlet daemon: "
+                        + excp.getMessage());
+            }
+        }
+        System.out.flush();
+        return served;
+    }
+
+    /** Returns true iff a daemon is listening on SOCKET. */
+    private static boolean isRunning(File socket) {
+        try {
+            SocketChannel.open(address(socket)).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Serves commands on SOCKET until this process is stopped. */
+    static void serve(File socket) throws IOException {
+        if (socket.exists() && (isRunning(socket) || !socket.delete())) {
+            throw Utils.error("A Gitlet daemon is already running.");
+        }
+        try (ServerSocketChannel server =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address(socket));
+            socket.deleteOnExit();
+            Utils.message("Serving %s.", workingDir());
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (EOFException excp) {
+                    continue;
+                } catch (IOException | RuntimeException excp) {
+                    System.err.println(excp);
+                }
+            }
+        }
+    }
+
+    /** Runs the command sent by CLIENT and sends back its output. A
+     *  malformed request or a command that fails unexpectedly is
+     *  reported to CLIENT without stopping the daemon. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                Channels.newInputStream(client));
+        OutputStream out = new BufferedOutputStream(
+                Channels.newOutputStream(client));
+        PrintStream reply = new PrintStream(out, false);
+        String dir = in.readUTF();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ARGS) {
+            out.write(SERVED);
+            reply.println("Invalid request.");
+            reply.flush();
+            return;
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        if (!dir.equals(workingDir())) {
+            out.write(DECLINED);
+            out.flush();
+            return;
+        }
+        out.write(SERVED);
+        PrintStream stdout = System.out;
+        System.setOut(reply);
+        try {
+            Main.reopen();
+            Main.execute(args);
+        } catch (RuntimeException excp) {
+            reply.println(excp);
+        } finally {
+            reply.flush();
+            System.setOut(stdout);
+        }
+    }
+}
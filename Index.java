@@ -0,0 +1,261 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/** Index class for gitlet. The index is a binary file that records,
+ *  for each path it knows, the size, modification time, change time and
+ *  inode of the working file together with the hash of its contents.
+ *  As long as the stat data of a file still matches its entry, the file
+ *  need not be read and hashed again.
+ *  @author Philipp
+ */
+public class Index {
+
+    /** Magic number at the start of the index file ("GLDX"). */
+    private static final int MAGIC = 0x474c4458;
+
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+
+    /** Files modified less than this many nanoseconds before they were
+     *  hashed are racy: a change within the same timestamp granule would
+     *  not show in their stat data, so their hash is not cached. */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** Index file. */
+    private File _file;
+
+    /** Entries of this index by path. */
+    private Map<String, Entry> _entries;
+
+    /** True iff this index has been changed since it was read. */
+    private boolean _changed;
+
+    /** Stat data and content hash of a single working file. */
+    private static class Entry {
+        /** Size of the file in bytes. */
+        private long _size;
+        /** Modification time in nanoseconds. */
+        private long _mtime;
+        /** Change time in nanoseconds, or 0 if unknown. */
+        private long _ctime;
+        /** Inode number, or 0 if unknown. */
+        private long _inode;
+        /** Hash of the contents, or null if it must not be trusted. */
+        private String _hash;
+
+        /** Returns true iff OTHER has the same stat data as this. */
+        boolean sameStat(Entry other) {
+            return _size == other._size && _mtime == other._mtime
+                    && _ctime == other._ctime && _inode == other._inode;
+        }
+    }
+
+    /** Creates new empty index that is stored in FILE. */
+    private Index(File file) {
+        _file = file;
+        _entries = new TreeMap<String, Entry>();
+    }
+
+    /** Returns the index stored in FILE, or an empty index if FILE
+     *  does not exist. */
+    public static Index read(File file) {
+        Index index = new Index(file);
+        if (!file.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return index;
+            }
+            int count = in.readInt();
+            byte[] raw = new byte[Utils.UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                Entry entry = new Entry();
+                entry._size = in.readLong();
+                entry._mtime = in.readLong();
+                entry._ctime = in.readLong();
+                entry._inode = in.readLong();
+                if (in.readBoolean()) {
+                    in.readFully(raw);
+                    entry._hash = Utils.bytesToHex(raw);
+                }
+                index._entries.put(path, entry);
+            }
+        } catch (IOException excp) {
+            index._entries.clear();
+        }
+        return index;
+    }
+
+    /** Writes this index back to its file if it has changed. */
+    public void write() {
+        if (!_changed) {
+            return;
+        }
+        try {
+            File tmp = File.createTempFile("index-", null,
+                    _file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(_entries.size());
+                for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry._size);
+                    out.writeLong(entry._mtime);
+                    out.writeLong(entry._ctime);
+                    out.writeLong(entry._inode);
+                    out.writeBoolean(entry._hash != null);
+                    if (entry._hash != null) {
+                        out.write(Utils.hexToBytes(entry._hash));
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), _file.toPath(), REPLACE_EXISTING,
+                    ATOMIC_MOVE);
+            _changed = false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the current stat data of FILE as an entry without hash,
+     *  or null if FILE does not exist. */
+    private static Entry stat(File file) {
+        Path path = file.toPath();
+        Entry entry = new Entry();
+        try {
+            try {
+                Map<String, Object> attrs = Files.readAttributes(path,
+                        "unix:size,lastModifiedTime,ctime,ino");
+                entry._size = (Long) attrs.get("size");
+                entry._mtime = ((FileTime) attrs.get("lastModifiedTime"))
+                        .to(TimeUnit.NANOSECONDS);
+                entry._ctime = ((FileTime) attrs.get("ctime"))
+                        .to(TimeUnit.NANOSECONDS);
+                entry._inode = (Long) attrs.get("ino");
+            } catch (UnsupportedOperationException excp) {
+                BasicFileAttributes attrs = Files.readAttributes(path,
+                        BasicFileAttributes.class);
+                entry._size = attrs.size();
+                entry._mtime = attrs.lastModifiedTime()
+                        .to(TimeUnit.NANOSECONDS);
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return entry;
+    }
+
+    /** Records ENTRY, the current stat data of the file at PATH, whose
+     *  contents hash to HASH. */
+    private void record(String path, Entry entry, String hash) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        entry._hash = entry._mtime + RACY_NANOS < now ? hash : null;
+        _entries.put(path, entry);
+        _changed = true;
+    }
+
+    /** Returns true iff the entry for PATH has a hash that is trusted
+     *  while the stat data of its file stays the same. Only used by
+     *  tests. */
+    boolean isCached(String path) {
+        Entry entry = _entries.get(path);
+        return entry != null && entry._hash != null;
+    }
+
+    /** Returns the hashes of the working files at PATHS by path, only
+     *  reading the files whose stat data changed since they were last
+     *  hashed. The files are statted and hashed on at most PARALLELISM
+     *  threads, so that reading one file overlaps hashing another.
+     *  Paths whose file does not exist are left out. */
+    public Map<String, String> hashAll(Collection<String> paths,
+                                       int parallelism) throws IOException {
+        return hashAll(paths, null, parallelism);
+    }
+
+    /** Like hashAll(PATHS, PARALLELISM), but also stores the contents of
+     *  each file in STORE unless STORE is null. Files whose stat data
+     *  matches their entry and whose contents STORE has already are
+     *  neither read nor stored again. */
+    public Map<String, String> hashAll(Collection<String> paths,
+                                       ObjectStore store, int parallelism)
+            throws IOException {
+        List<String> list = new ArrayList<String>(paths);
+        List<Callable<Entry>> tasks = new ArrayList<Callable<Entry>>();
+        for (String path : list) {
+            Entry cached = _entries.get(path);
+            tasks.add(() -> {
+                File file = new File(path);
+                Entry current = stat(file);
+                if (current == null) {
+                    return null;
+                } else if (cached != null && cached._hash != null
+                        && current.sameStat(cached)
+                        && (store == null || store.contains(cached._hash))) {
+                    return cached;
+                }
+                current._hash = store == null ? ObjectStore.hash(file)
+                        : store.insert(file);
+                return current;
+            });
+        }
+        List<Entry> entries = Workers.invokeAll(tasks, parallelism);
+        Map<String, String> hashes = new TreeMap<String, String>();
+        for (int i = 0; i < list.size(); i += 1) {
+            String path = list.get(i);
+            Entry entry = entries.get(i);
+            if (entry == null) {
+                remove(path);
+                continue;
+            }
+            hashes.put(path, entry._hash);
+            if (entry != _entries.get(path)) {
+                record(path, entry, entry._hash);
+            }
+        }
+        return hashes;
+    }
+
+    /** Removes the entry for PATH. */
+    public void remove(String path) {
+        if (_entries.remove(path) != null) {
+            _changed = true;
+        }
+    }
+
+    /** Removes all entries whose path is not in PATHS. */
+    public void retain(Set<String> paths) {
+        Set<String> keys = _entries.keySet();
+        if (keys.retainAll(paths)) {
+            _changed = true;
+        }
+    }
+}
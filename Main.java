@@ -1,17 +1,27 @@
 package gitlet;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
-
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Philipp
@@ -21,6 +31,12 @@ public class Main {
     /** Path to Management file. */
     private static final String MGMT_FILE = "Management";
 
+    /** Path to commit graph file. */
+    private static final String GRAPH_FILE = "commit-graph";
+
+    /** Path to index file. */
+    private static final String INDEX_FILE = "index";
+
     /** Path to .gitlet directory. */
     private static final String GITLET_DIR = ".gitlet/";
 
@@ -30,12 +46,49 @@ public class Main {
     /** Path to commit directory within .gitlet. */
     private static final String COMMIT_DIR = GITLET_DIR + "commits/";
 
-    /** Path to staging directory within .gitlet. */
+    /** Path to the staging directory that older versions of gitlet
+     *  kept copies of staged files in. */
     private static final String STAGING_DIR = GITLET_DIR + "staging/";
 
     /** Default branch name. */
     private static final String MASTER_BRANCH = "master";
 
+    /** Object store holding the contents of committed files. */
+    private static final ObjectStore BLOBS =
+            new ObjectStore(new File(BLOB_DIR));
+
+    /** Object store holding serialized commits. */
+    private static final ObjectStore COMMITS =
+            new ObjectStore(new File(COMMIT_DIR));
+
+    /** Object store holding serialized trees. */
+    private static final ObjectStore TREES =
+            new ObjectStore(new File(GITLET_DIR + "trees/"));
+
+    /** Commit graph of this repository, opened on first use. */
+    private static CommitGraph _graph;
+
+    /** True iff commands are run in batch mode, which keeps Management
+     *  and the index in memory until the next checkpoint. */
+    private static boolean _batch;
+
+    /** Management object kept in memory in batch mode, or null. */
+    private static Management _mgmt;
+
+    /** Index kept in memory in batch mode, or null. */
+    private static Index _index;
+
+    /** True iff _mgmt has changes that are not written yet. */
+    private static boolean _mgmtDirty;
+
+    /** True iff _index has changes that are not written yet. */
+    private static boolean _indexDirty;
+
+    /** Cache of deserialized commits, whose total weight in tracked
+     *  files is bounded by the system property gitlet.commitCache. */
+    private static final CommitCache COMMIT_CACHE =
+            new CommitCache(Long.getLong("gitlet.commitCache", 1 << 20));
+
     /** Static method that checks if no .gitlet directory exists.
      *  If directory exists already, method throws an error.
      */
@@ -70,69 +123,164 @@ public class Main {
         return new File(GITLET_DIR + filename);
     }
 
-    /** Static method that returns file object for a file
-     *  in the staging directory and the filename FILENAME.
+    /** Static method that serializes MGMT as Management file. In batch
+     *  mode, this is deferred until the next checkpoint.
      */
-    private static File getStagedFile(String filename) {
-        return new File(STAGING_DIR + filename);
+    private static void serializeManagement(Management mgmt) {
+        if (_batch) {
+            _mgmt = mgmt;
+            _mgmtDirty = true;
+            return;
+        }
+        writeManagement(getGitletFile(MGMT_FILE), mgmt);
+        if (_graph != null) {
+            _graph.write();
+        }
     }
 
-    /** Static method that returns file object for a file
-     *  in the commits directory and the filename FILENAME.
+    /** Static method that writes management object MGMT to FILE.
+     */
+    private static void writeManagement(File file, Management mgmt) {
+        Utils.writeContents(file, mgmt.encode());
+    }
+
+    /** Static method that reads the management object in FILE.
+     */
+    private static Management readManagement(File file) {
+        return Management.decode(Utils.readContents(file));
+    }
+
+    /** Static method that deserializes the Management file
+     *  and returns it.
      */
-    private static File getCommitFile(String filename) {
-        if (!Files.exists(Paths.get(COMMIT_DIR))) {
-            new File(COMMIT_DIR).mkdir();
+    private static Management deserializeManagement() {
+        if (_mgmt != null) {
+            return _mgmt;
+        }
+        Management mgmt = readManagement(getGitletFile(MGMT_FILE));
+        migrateStaging(mgmt);
+        if (_batch) {
+            _mgmt = mgmt;
         }
-        return new File(COMMIT_DIR + filename);
+        return mgmt;
     }
 
-    /** Static method that returns file object for a file
-     *  in the blobs directory and the filename FILENAME.
+    /** Static method that reads the index and returns it.
      */
-    private static File getBlobFile(String filename) {
-        if (!Files.exists(Paths.get(BLOB_DIR))) {
-            new File(BLOB_DIR).mkdir();
+    private static Index readIndex() {
+        if (_index != null) {
+            return _index;
+        }
+        Index index = Index.read(getGitletFile(INDEX_FILE));
+        if (_batch) {
+            _index = index;
         }
-        return new File(BLOB_DIR + filename);
+        return index;
     }
 
-    /** Static method that serializes MGMT as Management file.
+    /** Static method that writes INDEX. In batch mode, this is deferred
+     *  until the next checkpoint.
      */
-    private static void serializeManagement(Management mgmt) {
-        Utils.writeObject(getGitletFile(MGMT_FILE), mgmt);
+    private static void writeIndex(Index index) {
+        if (_batch) {
+            _indexDirty = true;
+            return;
+        }
+        index.write();
     }
 
-    /** Static method that deserializes the Management file
-     *  and returns it.
+    /** Static method that writes Management, the commit graph and the
+     *  index kept in memory in batch mode if they have changed.
      */
-    private static Management deserializeManagement() {
-        return Utils.readObject(getGitletFile(MGMT_FILE), Management.class);
+    private static void checkpoint() {
+        if (_mgmtDirty) {
+            writeManagement(getGitletFile(MGMT_FILE), _mgmt);
+            if (_graph != null) {
+                _graph.write();
+            }
+            _mgmtDirty = false;
+        }
+        if (_indexDirty) {
+            _index.write();
+            _indexDirty = false;
+        }
+    }
+
+    /** Static method that moves files from the staging directory used
+     *  by older versions of gitlet into the blob store and stages them
+     *  in MGMT instead.
+     */
+    private static void migrateStaging(Management mgmt) {
+        File stagingDir = new File(STAGING_DIR);
+        List<String> stagedFiles = Utils.plainFilenamesIn(stagingDir);
+        if (stagedFiles == null) {
+            return;
+        }
+        try {
+            for (String file : stagedFiles) {
+                File stagedFile = Utils.join(stagingDir, file);
+                mgmt.stageFile(file, BLOBS.insert(stagedFile));
+                stagedFile.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        stagingDir.delete();
+        serializeManagement(mgmt);
     }
 
     /** Static method that serializes commit COMM and stores it
-     *  in the commits folder. Returns SHA1 hash (filename).
+     *  in the commits folder. Returns SHA1 hash (filename). The commit
+     *  is encoded once and the stored bytes are the hashed ones.
      */
     private static String serializeCommit(Commit comm) {
-        String hash = Utils.sha1(Utils.serialize(comm));
-        Utils.writeObject(getCommitFile(hash), comm);
+        String hash = COMMITS.write(comm.encode());
+        COMMIT_CACHE.put(hash, comm);
+        getCommitGraph().add(hash, comm);
         return hash;
     }
 
+    /** Returns the commit graph of this repository.
+     */
+    public static CommitGraph getCommitGraph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(getGitletFile(GRAPH_FILE), COMMITS);
+        }
+        return _graph;
+    }
+
     /** Deserializes commit file HASH and returns Commit object.
      */
     public static Commit deserializeCommit(String hash) {
         if (hash == null) {
             throw Utils.error("No commit with that id exists.");
         }
-        return Utils.readObject(getCommitFile(hash), Commit.class);
+        Commit comm = COMMIT_CACHE.get(hash);
+        if (comm == null) {
+            comm = Commit.decode(COMMITS.read(hash));
+            COMMIT_CACHE.put(hash, comm);
+        }
+        return comm;
     }
 
-    /** Static method that copies file FILENAME to the staging directory.
+    /** Returns the object store that holds trees.
      */
-    private static void copyToStaging(String filename) throws IOException {
-        Files.copy(new File(filename).toPath(),
-                getStagedFile(filename).toPath());
+    public static ObjectStore getTreeStore() {
+        return TREES;
+    }
+
+    /** Static method that returns the changes staged in MGMT, mapping
+     *  each file staged for addition to its blob hash and each file
+     *  staged for removal to null.
+     */
+    private static SortedMap<String, String> getStagedChanges(
+            Management mgmt) {
+        SortedMap<String, String> changes =
+            new TreeMap<String, String>(mgmt.getStagedFiles());
+        for (String file : mgmt.getRemovalFiles()) {
+            changes.put(file, null);
+        }
+        return changes;
     }
 
     /** Static method that copies the blob BLOB as new file with name
@@ -140,23 +288,18 @@ public class Main {
      */
     private static void copyToWorking(String blob,
                       String fileName) throws IOException {
-        Files.copy(getBlobFile(blob).toPath(), new File(fileName).toPath());
+        File file = new File(fileName);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        BLOBS.copyTo(blob, file);
     }
 
     /** Static method that returns full commit it for an
      *  ABBREVIATED commit id.
      */
     private static String findCommitID(String abbreviated) {
-        String res = null;
-        List<String> allCommits = Utils.plainFilenamesIn(COMMIT_DIR);
-        for (String s : allCommits) {
-            String substr = s.substring(0, abbreviated.length());
-            if (substr.equals(abbreviated)) {
-                res = s;
-                break;
-            }
-        }
-        return res;
+        return COMMITS.findByPrefix(abbreviated);
     }
 
     /** Static method that implements gitlet init functionality.
@@ -168,7 +311,6 @@ public class Main {
                     + "already exists in the current directory.");
         }
         new File(GITLET_DIR).mkdir();
-        new File(STAGING_DIR).mkdir();
         Commit initialCommit = Commit.newInitialCommit();
         String hash = serializeCommit(initialCommit);
         Management mgmt = new Management();
@@ -178,32 +320,66 @@ public class Main {
         serializeManagement(mgmt);
     }
 
+    /** Static method that returns the normalized names, separated by
+     *  '/', of the files named by PATHS, where each directory stands for
+     *  all files below it outside of .gitlet. Each file is named once,
+     *  in the order it is first reached. Throws an error if one of
+     *  PATHS does not exist.
+     */
+    private static List<String> expandPaths(List<String> paths)
+            throws IOException {
+        Set<String> files = new LinkedHashSet<String>();
+        for (String path : paths) {
+            checkFileExistence(path);
+            Path root = Paths.get(path);
+            if (!Files.isDirectory(root)) {
+                files.add(root.normalize().toString()
+                        .replace(File.separatorChar, '/'));
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(Files::isRegularFile).sorted()
+                    .forEach(file -> {
+                        Path name = file.normalize();
+                        for (Path part : name) {
+                            if (part.toString().equals(".gitlet")) {
+                                return;
+                            }
+                        }
+                        files.add(name.toString().replace(File.separatorChar,
+                                '/'));
+                    });
+            }
+        }
+        return new ArrayList<String>(files);
+    }
+
     /** Static method that implements gitlet add functionality.
-     *  Adds file FILENAME to the staging area.
+     *  Adds the files FILENAMES to the staging area. Files whose stat
+     *  data still matches the index and whose blob exists are not read
+     *  again; the others are hashed and written to the blob store in one
+     *  pass each, on as many threads as the system property
+     *  gitlet.addThreads allows. Staging only records names and hashes.
      */
-    private static void add(String filename) throws IOException {
+    private static void add(List<String> filenames) throws IOException {
         Management mgmt = deserializeManagement();
         Commit head = deserializeCommit(mgmt.getHeadCommit());
-        List<FileToShaMapping> previousFiles = head.getTrackedFiles();
-        if (getStagedFile(filename).exists()) {
-            getStagedFile(filename).delete();
-        }
-        byte[] fileContent = Utils.readContents(new File(filename));
-        String hash = Utils.sha1(fileContent);
-        boolean copyToStaging = true;
-        if (previousFiles != null) {
-            for (FileToShaMapping file : previousFiles) {
-                if (file.getFilename().equals(filename)
-                        && file.getHash().equals(hash)) {
-                    copyToStaging = false;
-                    break;
-                }
+        Index index = readIndex();
+        Map<String, String> hashes = index.hashAll(filenames, BLOBS,
+                Workers.parallelism("gitlet.addThreads"));
+        for (String filename : filenames) {
+            String hash = hashes.get(filename);
+            if (hash == null) {
+                throw Utils.error("File does not exist.");
+            }
+            mgmt.unstageFile(filename);
+            FileToShaMapping previous = head.getMapping(filename);
+            mgmt.deleteFromRemoval(filename);
+            if (previous == null || !previous.getHash().equals(hash)) {
+                mgmt.stageFile(filename, hash);
             }
         }
-        mgmt.deleteFromRemoval(filename);
-        if (copyToStaging) {
-            copyToStaging(filename);
-        }
+        writeIndex(index);
         serializeManagement(mgmt);
     }
 
@@ -218,29 +394,14 @@ public class Main {
         }
         Management mgmt = deserializeManagement();
         Commit head = deserializeCommit(mgmt.getHeadCommit());
-        List<FileToShaMapping> previousFiles = head.getTrackedFiles();
         Commit comm = new Commit(message);
-        comm.setTrackedFiles(previousFiles);
         comm.addParent(mgmt.getHeadCommit());
-        List<String> stagedFiles = Utils.plainFilenamesIn(STAGING_DIR);
-        if (stagedFiles.size() == 0
-                && (mgmt.getRemovalFiles() == null
-                || mgmt.getRemovalFiles().size() == 0)) {
+        SortedMap<String, String> changes = getStagedChanges(mgmt);
+        if (changes.isEmpty()) {
             throw Utils.error("No changes added to the commit.");
         }
-        for (String file : stagedFiles) {
-            File stagedFile = getStagedFile(file);
-            byte[] fileContent = Utils.readContents(stagedFile);
-            String hash = Utils.sha1(fileContent);
-            Utils.writeContents(getBlobFile(hash), fileContent);
-            comm.updateTrackedFile(file, hash);
-            stagedFile.delete();
-        }
-        if (mgmt.getRemovalFiles() != null) {
-            for (String file : mgmt.getRemovalFiles()) {
-                comm.removeTracking(file);
-            }
-        }
+        comm.setTree(Tree.update(TREES, head.getTree(), changes));
+        mgmt.clearStaging();
         mgmt.clearRemoval();
         String hash = serializeCommit(comm);
         mgmt.setHead(hash);
@@ -254,38 +415,17 @@ public class Main {
     private static void rm(String filename) {
         Management mgmt = deserializeManagement();
         Commit head = deserializeCommit(mgmt.getHeadCommit());
-        List<FileToShaMapping> previousFiles = head.getTrackedFiles();
-        List<String> stagedFiles = Utils.plainFilenamesIn(STAGING_DIR);
-
-        boolean fileFound = false;
-        boolean fileFoundInCommit = false;
-        if (previousFiles != null) {
-            for (FileToShaMapping file : previousFiles) {
-                if (file.getFilename().equals(filename)) {
-                    fileFound = true;
-                    fileFoundInCommit = true;
-                    break;
-                }
-            }
-        }
-        if (!fileFound) {
-            for (String file : stagedFiles) {
-                if (file.equals(filename)) {
-                    fileFound = true;
-                    break;
-                }
-            }
-        }
-        if (!fileFound) {
+        Map<String, String> stagedFiles = mgmt.getStagedFiles();
+
+        boolean fileFoundInCommit = head.getMapping(filename) != null;
+        if (!fileFoundInCommit && !stagedFiles.containsKey(filename)) {
             throw Utils.error("No reason to remove the file.");
         }
 
         if (fileFoundInCommit) {
             mgmt.addRemoval(filename);
         }
-        if (getStagedFile(filename).exists()) {
-            getStagedFile(filename).delete();
-        }
+        mgmt.unstageFile(filename);
         if (new File(filename).exists() && fileFoundInCommit) {
             new File(filename).delete();
         }
@@ -321,7 +461,7 @@ public class Main {
      *  Outputs list of all commits ever made in no particular order.
      */
     private static void globalLog() {
-        List<String> commitHashes = Utils.plainFilenamesIn(COMMIT_DIR);
+        List<String> commitHashes = COMMITS.list();
         for (String hash : commitHashes) {
             Commit comm = deserializeCommit(hash);
             String str = "===\ncommit " + hash;
@@ -340,7 +480,7 @@ public class Main {
      */
     private static void find(String message) {
         boolean foundOne = false;
-        List<String> commitHashes = Utils.plainFilenamesIn(COMMIT_DIR);
+        List<String> commitHashes = COMMITS.list();
         if (commitHashes != null) {
             for (String hash : commitHashes) {
                 Commit comm = deserializeCommit(hash);
@@ -356,76 +496,56 @@ public class Main {
     }
 
     /** Static method that outputs Modifications Not Staged For Commit
-     *  part of the gitlet status command. Takes lists STAGEDFILES and
+     *  part of the gitlet status command. Takes map STAGEDFILES, list
      *  REMOVALFILES as well as management object MGMT as argument and
-     *  returns list trackedFilesString.
+     *  returns the set of tracked files. Working files are hashed
+     *  through the index, so only files whose stat data changed since
+     *  they were last hashed are read, and on as many threads as the
+     *  system property gitlet.statusThreads allows.
      */
-    private static List<String> statusModified(List<String> stagedFiles,
-                       List<String> removalFiles, Management mgmt) {
+    private static Set<String> statusModified(
+            Map<String, String> stagedFiles, List<String> removalFiles,
+            Management mgmt) throws IOException {
         Utils.message("\n=== Modifications Not Staged For Commit ===");
         String head = mgmt.getHeadCommit();
         Commit comm = deserializeCommit(head);
-        List<String> modifiedButNotStaged = new LinkedList<String>();
-        List<FileToShaMapping> trackedFiles = comm.getTrackedFiles();
-        List<String> trackedFilesString = new LinkedList<String>();
-        if (trackedFiles != null) {
-            for (FileToShaMapping fileMapping : trackedFiles) {
-                String name = fileMapping.getFilename();
-                if (!removalFiles.contains(name)) {
-                    trackedFilesString.add(name);
-                }
-                File file = new File(name);
-                if (!file.exists()) {
-                    if (!removalFiles.contains(name)) {
-                        modifiedButNotStaged.add(name + " (deleted)");
-                        continue;
-                    }
-                } else {
-                    if (!stagedFiles.contains(name)
-                            && !removalFiles.contains(name)) {
-                        byte[] fileContent = Utils.readContents(new File(name));
-                        String hash = Utils.sha1(fileContent);
-                        if (!fileMapping.getHash().equals(hash)) {
-                            modifiedButNotStaged.add(name + " (modified)");
-                            continue;
-                        }
-                    }
-                }
+        Index index = readIndex();
+        Set<String> removed = new HashSet<String>(removalFiles);
+        Map<String, String> expected = new TreeMap<String, String>();
+        Set<String> trackedFiles = new HashSet<String>();
+        for (FileToShaMapping fileMapping : comm.getTrackedFiles()) {
+            String name = fileMapping.getFilename();
+            if (!removed.contains(name)) {
+                trackedFiles.add(name);
+                expected.put(name, fileMapping.getHash());
             }
         }
-        for (String s : stagedFiles) {
-            File file = new File(s);
-            if (!file.exists()) {
-                modifiedButNotStaged.add(s + " (deleted)");
-                continue;
-            } else {
-                byte[] fileContent = Utils.readContents(file);
-                String hash1 = Utils.sha1(fileContent);
-                fileContent = Utils.readContents(getStagedFile(s));
-                String hash2 = Utils.sha1(fileContent);
-                if (!hash1.equals(hash2)) {
-                    modifiedButNotStaged.add(s + " (modified)");
-                    continue;
-                }
+        expected.putAll(stagedFiles);
+        Map<String, String> actual = index.hashAll(expected.keySet(),
+                Workers.parallelism("gitlet.statusThreads"));
+        index.retain(expected.keySet());
+        writeIndex(index);
+        for (Map.Entry<String, String> file : expected.entrySet()) {
+            String hash = actual.get(file.getKey());
+            if (hash == null) {
+                Utils.message(file.getKey() + " (deleted)");
+            } else if (!hash.equals(file.getValue())) {
+                Utils.message(file.getKey() + " (modified)");
             }
         }
-        Collections.sort(modifiedButNotStaged);
-        for (String s : modifiedButNotStaged) {
-            Utils.message(s);
-        }
-        return trackedFilesString;
+        return trackedFiles;
     }
 
     /** Static method that outputs Untracked Files part of gitlet status
-     *  command. Takes lists WORKINGFILES, STAGEDFILES and
-     *  TRACKEDFILESSTRING as arguments.
+     *  command. Takes list WORKINGFILES, map STAGEDFILES and set
+     *  TRACKEDFILES as arguments.
      */
     private static void statusUntracked(List<String> workingFiles,
-                List<String> stagedFiles, List<String> trackedFilesString) {
+                Map<String, String> stagedFiles, Set<String> trackedFiles) {
         Utils.message("\n=== Untracked Files ===");
         List<String> untracked = new LinkedList<String>();
         for (String s : workingFiles) {
-            if (!stagedFiles.contains(s) && !trackedFilesString.contains(s)) {
+            if (!stagedFiles.containsKey(s) && !trackedFiles.contains(s)) {
                 untracked.add(s);
             }
         }
@@ -439,7 +559,7 @@ public class Main {
      *  Outputs a table that gives an overview about tracked and
      *  removed files that will be added to the next commit.
      */
-    private static void status() {
+    private static void status() throws IOException {
         Management mgmt = deserializeManagement();
         List<String> workingFiles = Utils.plainFilenamesIn(".");
         List<String> branchList = new LinkedList<String>();
@@ -458,9 +578,8 @@ public class Main {
             Utils.message(out);
         }
         Utils.message("\n=== Staged Files ===");
-        List<String> stagedFiles = Utils.plainFilenamesIn(STAGING_DIR);
-        Collections.sort(stagedFiles);
-        for (String file : stagedFiles) {
+        Map<String, String> stagedFiles = mgmt.getStagedFiles();
+        for (String file : stagedFiles.keySet()) {
             Utils.message(file);
         }
         Utils.message("\n=== Removed Files ===");
@@ -469,9 +588,9 @@ public class Main {
         for (String file : removalFiles) {
             Utils.message(file);
         }
-        List<String> trackedFilesString = statusModified(stagedFiles,
+        Set<String> trackedFiles = statusModified(stagedFiles,
                 removalFiles, mgmt);
-        statusUntracked(workingFiles, stagedFiles, trackedFilesString);
+        statusUntracked(workingFiles, stagedFiles, trackedFiles);
     }
 
     /** Static helper function that checks out file FILENAME from commit
@@ -480,16 +599,7 @@ public class Main {
     private static void checkoutHelper(String commitID,
                        String fileName) throws IOException {
         Commit comm = deserializeCommit(commitID);
-        List<FileToShaMapping> tracked = comm.getTrackedFiles();
-        FileToShaMapping mapping = null;
-        if (tracked != null) {
-            for (FileToShaMapping f : tracked) {
-                if (f.getFilename().equals(fileName)) {
-                    mapping = f;
-                    break;
-                }
-            }
-        }
+        FileToShaMapping mapping = comm.getMapping(fileName);
         if (mapping == null) {
             throw Utils.error("File does not exist in that commit.");
         }
@@ -518,70 +628,184 @@ public class Main {
         checkoutHelper(blobName, fileName);
     }
 
-    /** Static method that checks if there are any files in the working
-     *  directory that are not tracked in the latest commit of branch
-     *  BRANCHNAME. Retrieves information from Management object MGMT.
+    /** Static method that checks whether branch BRANCHNAME can be
+     *  checked out, including that no untracked file in the working
+     *  directory would be overwritten, and throws an error otherwise.
+     *  Retrieves information from Management object MGMT. Returns the
+     *  files that differ between the current head and the branch, as
+     *  diffCommits does.
      */
-    private static void checkForUntrackedFiles(String branchName,
-                                               Management mgmt) {
+    private static Map<String, String> checkCheckout(String branchName,
+            Management mgmt) throws IOException {
         if (!mgmt.branchExists(branchName)) {
             throw Utils.error("No such branch exists.");
         } else if (mgmt.getCurrentBranch().equals(branchName)) {
             throw Utils.error("No need to checkout the current branch.");
         }
         Commit currentHead = deserializeCommit(mgmt.getHeadCommit());
-        List<FileToShaMapping> currentFiles = currentHead.getTrackedFiles();
-
         String branchHeadHash = mgmt.getBranchHeadHash(branchName);
         Commit branchHead = deserializeCommit(branchHeadHash);
-        List<FileToShaMapping> branchFiles = branchHead.getTrackedFiles();
-
-        for (FileToShaMapping mapping : branchFiles) {
-            if (new File(mapping.getFilename()).exists()) {
-                boolean found = false;
-                for (FileToShaMapping mapping2 : currentFiles) {
-                    if (mapping2.getFilename().equals(mapping.getFilename())) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    throw Utils.error("There is an untracked file in the way; "
-                            + "delete it or add it first.");
-                }
+        Map<String, String> changed = diffCommits(currentHead, branchHead);
+        checkForUntrackedFiles(currentHead, changed);
+        return changed;
+    }
+
+    /** Static method that adds to CHANGED, the differences from the
+     *  current commit to commit TARGET, every other file tracked by
+     *  TARGET whose working file is missing or has other contents, so
+     *  that writing CHANGED also discards local changes. Working files
+     *  are hashed through the index, so only files whose stat data
+     *  changed since they were last hashed are read.
+     */
+    private static void addLocalChanges(Commit target,
+            Map<String, String> changed) throws IOException {
+        Map<String, String> expected = new TreeMap<String, String>();
+        for (FileToShaMapping mapping : target.getTrackedFiles()) {
+            String name = mapping.getFilename();
+            if (!changed.containsKey(name)
+                    && !new File(name).isDirectory()) {
+                expected.put(name, mapping.getHash());
+            }
+        }
+        Index index = readIndex();
+        Map<String, String> actual = index.hashAll(expected.keySet(),
+                Workers.parallelism("gitlet.statusThreads"));
+        writeIndex(index);
+        for (Map.Entry<String, String> file : expected.entrySet()) {
+            if (!file.getValue().equals(actual.get(file.getKey()))) {
+                changed.put(file.getKey(), file.getValue());
             }
         }
     }
 
-    /** Static method that implements third version of gitlet checkout.
-     *  Checks out last state of branch BRANCHNAME.
+    /** Static method that returns every file that differs between
+     *  commits CURRENT and TARGET, mapped to its blob hash in TARGET or
+     *  to null if TARGET does not track it. Subtrees with identical
+     *  hashes are skipped without being read.
      */
-    private static void checkout3(String branchName) throws IOException {
-        Management mgmt = deserializeManagement();
-        checkForUntrackedFiles(branchName, mgmt);
-        Commit currentHead = deserializeCommit(mgmt.getHeadCommit());
-        List<FileToShaMapping> currentFiles = currentHead.getTrackedFiles();
+    private static Map<String, String> diffCommits(Commit current,
+                                                   Commit target) {
+        Map<String, String> changed = new TreeMap<String, String>();
+        Tree.diff(TREES, current.getTree(), target.getTree(), "", changed);
+        return changed;
+    }
 
-        for (FileToShaMapping mapping : currentFiles) {
-            File file = new File(mapping.getFilename());
-            if (file.exists()) {
-                file.delete();
+    /** Static method that checks if writing any file in CHANGED, the
+     *  differences from commit CURRENT to some target commit, would
+     *  overwrite a working file that CURRENT does not track, and throws
+     *  an error if that is the case. Files of CURRENT are looked up in
+     *  its table by file name.
+     */
+    private static void checkForUntrackedFiles(Commit current,
+            Map<String, String> changed) throws IOException {
+        for (Map.Entry<String, String> change : changed.entrySet()) {
+            if (change.getValue() != null
+                    && isInTheWay(current, change.getKey())) {
+                throw Utils.error("There is an untracked file in the way; "
+                        + "delete it or add it first.");
             }
         }
+    }
 
-        String branchHeadHash = mgmt.getBranchHeadHash(branchName);
-        Commit branchHead = deserializeCommit(branchHeadHash);
-        List<FileToShaMapping> branchFiles = branchHead.getTrackedFiles();
-
-        for (FileToShaMapping f : branchFiles) {
-            copyToWorking(f.getHash(), f.getFilename());
+    /** Static method that returns true iff writing the file PATH would
+     *  overwrite a working file that commit CURRENT does not track. That
+     *  is the case for an untracked file at PATH or where one of its
+     *  parent directories belongs, and for a directory at PATH holding
+     *  any untracked file, since it has to make way for the file.
+     */
+    private static boolean isInTheWay(Commit current, String path)
+            throws IOException {
+        File file = new File(path);
+        if (file.isFile()) {
+            return current.getMapping(path) == null;
+        } else if (file.isDirectory()) {
+            try (Stream<Path> walk = Files.walk(file.toPath())) {
+                return walk.filter(Files::isRegularFile).anyMatch(p ->
+                        current.getMapping(p.toString().replace(
+                                File.separatorChar, '/')) == null);
+            }
+        }
+        for (File dir = file.getParentFile(); dir != null;
+                dir = dir.getParentFile()) {
+            if (dir.isFile()) {
+                return current.getMapping(dir.getPath().replace(
+                        File.separatorChar, '/')) == null;
+            }
         }
+        return false;
+    }
 
-        List<String> stagedFiles = Utils.plainFilenamesIn(STAGING_DIR);
-        for (String file : stagedFiles) {
-            File stagedFile = getStagedFile(file);
-            stagedFile.delete();
+    /** Static method that replaces each file in FILES, which maps file
+     *  names to blob hashes, with a copy of its blob, or deletes it if
+     *  its hash is null. The old files are deleted first, those inside a
+     *  directory before the directory itself, and directories left empty
+     *  by deleted files are removed, so that a path can change between
+     *  file and directory. The directories needed are then created, once
+     *  each, and the files written on as many threads as the system
+     *  property gitlet.checkoutThreads allows. Files not in FILES are
+     *  left untouched. All files are attempted; if any of them fail, the
+     *  failure of the first such file in the order of FILES is thrown.
+     *  If the system property gitlet.linkCheckout is true, files are
+     *  hard links to their loose blobs where possible, which is meant
+     *  for checkouts that are only read.
+     */
+    private static void writeWorkingFiles(Map<String, String> files)
+            throws IOException {
+        boolean link = Boolean.getBoolean("gitlet.linkCheckout");
+        TreeMap<String, String> sorted = new TreeMap<String, String>(files);
+        for (Map.Entry<String, String> entry
+                : sorted.descendingMap().entrySet()) {
+            File file = new File(entry.getKey());
+            if (file.isFile()) {
+                Files.delete(file.toPath());
+            }
+            if (entry.getValue() == null) {
+                File dir = file.getParentFile();
+                while (dir != null && dir.delete()) {
+                    dir = dir.getParentFile();
+                }
+            } else if (file.isDirectory()) {
+                Files.delete(file.toPath());
+            }
+        }
+        Set<File> dirs = new TreeSet<File>();
+        List<Callable<Void>> writes = new ArrayList<Callable<Void>>();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            File file = new File(entry.getKey());
+            String blob = entry.getValue();
+            if (blob == null) {
+                continue;
+            }
+            if (file.getParentFile() != null) {
+                dirs.add(file.getParentFile());
+            }
+            writes.add(() -> {
+                if (link) {
+                    BLOBS.linkTo(blob, file);
+                } else {
+                    BLOBS.copyTo(blob, file);
+                }
+                return null;
+            });
+        }
+        for (File dir : dirs) {
+            dir.mkdirs();
         }
+        Workers.invokeAll(writes,
+                Workers.parallelism("gitlet.checkoutThreads"));
+    }
+
+    /** Static method that implements third version of gitlet checkout.
+     *  Checks out last state of branch BRANCHNAME.
+     */
+    private static void checkout3(String branchName) throws IOException {
+        Management mgmt = deserializeManagement();
+        Map<String, String> changed = checkCheckout(branchName, mgmt);
+        String branchHeadHash = mgmt.getBranchHeadHash(branchName);
+        addLocalChanges(deserializeCommit(branchHeadHash), changed);
+        writeWorkingFiles(changed);
+
+        mgmt.clearStaging();
         mgmt.clearRemoval();
 
         mgmt.setCurrentBranch(branchName);
@@ -622,46 +846,17 @@ public class Main {
     private static void reset(String commitHash) throws IOException {
         commitHash = findCommitID(commitHash);
         Management mgmt = deserializeManagement();
-        if (!getCommitFile(commitHash).exists()) {
+        if (!COMMITS.contains(commitHash)) {
             throw Utils.error("No commit with that id exists.");
         }
         Commit currentHead = deserializeCommit(mgmt.getHeadCommit());
-        List<FileToShaMapping> currentFiles = currentHead.getTrackedFiles();
-
         Commit resetCommit = deserializeCommit(commitHash);
-        List<FileToShaMapping> resetFiles = resetCommit.getTrackedFiles();
-
-        for (FileToShaMapping mapping : resetFiles) {
-            if (new File(mapping.getFilename()).exists()) {
-                boolean found = false;
-                for (FileToShaMapping mapping2 : currentFiles) {
-                    if (mapping2.getFilename().equals(mapping.getFilename())) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    throw Utils.error("There is an untracked file in the way; "
-                            + "delete it or add it first.");
-                }
-            }
-        }
+        Map<String, String> changed = diffCommits(currentHead, resetCommit);
+        checkForUntrackedFiles(currentHead, changed);
+        addLocalChanges(resetCommit, changed);
+        writeWorkingFiles(changed);
 
-        for (FileToShaMapping mapping : currentFiles) {
-            File file = new File(mapping.getFilename());
-            if (file.exists()) {
-                file.delete();
-            }
-        }
-
-        List<String> stagedFiles = Utils.plainFilenamesIn(STAGING_DIR);
-        for (String filename : stagedFiles) {
-            getStagedFile(filename).delete();
-        }
-
-        for (FileToShaMapping f : resetFiles) {
-            copyToWorking(f.getHash(), f.getFilename());
-        }
+        mgmt.clearStaging();
         mgmt.setHead(commitHash);
         mgmt.setCurrentBranchHead(commitHash);
         serializeManagement(mgmt);
@@ -672,7 +867,7 @@ public class Main {
      *  from the MGMT management object.
      */
     private static void checkForUncommittedChanges(Management mgmt) {
-        if (Utils.plainFilenamesIn(STAGING_DIR).size() > 0
+        if (mgmt.getStagedFiles().size() > 0
             || mgmt.getRemovalFiles().size() > 0) {
             throw Utils.error("You have uncommitted changes.");
         }
@@ -701,11 +896,12 @@ public class Main {
     /** Static method that performs multiple checks for a merge with branch
      *  BRANCHNAME. Retrieves information from the management object MGMT.
      */
-    private static void mergeChecks(String branchName, Management mgmt) {
+    private static void mergeChecks(String branchName, Management mgmt)
+            throws IOException {
         checkBranchName(branchName, mgmt);
         checkIdenticalBranch(branchName, mgmt);
         checkForUncommittedChanges(mgmt);
-        checkForUntrackedFiles(branchName, mgmt);
+        checkCheckout(branchName, mgmt);
 
     }
 
@@ -737,34 +933,20 @@ public class Main {
     private static void mergeCommit(Management mgmt, String givenName,
                 String givenHash, String currName, String currHash) {
         Commit head = deserializeCommit(mgmt.getHeadCommit());
-        List<FileToShaMapping> previousFiles = head.getTrackedFiles();
         Commit comm = new Commit("Merged " + givenName
                 +  " into " + currName + ".");
-        comm.setTrackedFiles(previousFiles);
         comm.addParent(currHash);
         comm.addParent(givenHash);
-        List<String> stagedFiles = Utils.plainFilenamesIn(STAGING_DIR);
-
-        for (String file : stagedFiles) {
-            File stagedFile = getStagedFile(file);
-            byte[] fileContent = Utils.readContents(stagedFile);
-            String hash = Utils.sha1(fileContent);
-            Utils.writeContents(getBlobFile(hash), fileContent);
-            comm.updateTrackedFile(file, hash);
-            stagedFile.delete();
+        SortedMap<String, String> changes = getStagedChanges(mgmt);
+        comm.setTree(Tree.update(TREES, head.getTree(), changes));
+        for (String file : mgmt.getRemovalFiles()) {
+            new File(file).delete();
         }
-
-        if (mgmt.getRemovalFiles() != null) {
-            for (String file : mgmt.getRemovalFiles()) {
-                comm.removeTracking(file);
-                new File(file).delete();
-            }
-        }
-        if (stagedFiles.size() == 0 && mgmt.getRemovalFiles().size() == 0
-                && !mgmt.hasOutput()) {
+        if (changes.isEmpty() && !mgmt.hasOutput()) {
             Utils.message("No changes added to the commit.");
             mgmt.setOutput();
         }
+        mgmt.clearStaging();
         mgmt.clearRemoval();
 
         String hash = serializeCommit(comm);
@@ -846,6 +1028,7 @@ public class Main {
         Commit curr = deserializeCommit(currHash);
         Commit given = deserializeCommit(givenHash);
         FileToShaMapping f = null;
+        Map<String, String> checkouts = new TreeMap<String, String>();
         for (Map.Entry<String, Action> entry : allFiles.entrySet()) {
             switch (entry.getValue()) {
             case BLANK:
@@ -853,8 +1036,8 @@ public class Main {
                 break;
             case CHECKOUT:
                 f = given.getMapping(entry.getKey());
-                checkout2(givenHash, f.getFilename());
-                copyToStaging(f.getFilename());
+                checkouts.put(f.getFilename(), f.getHash());
+                mgmt.stageFile(f.getFilename(), f.getHash());
                 break;
             case REMOVE:
                 f = curr.getMapping(entry.getKey());
@@ -864,20 +1047,20 @@ public class Main {
                 String content = "<<<<<<< HEAD\n";
                 f = curr.getMapping(entry.getKey());
                 if (f != null) {
-                    File blob = getBlobFile(f.getHash());
-                    content += Utils.readContentsAsString(blob);
+                    content += new String(BLOBS.read(f.getHash()),
+                            StandardCharsets.UTF_8);
                 }
                 content += "=======\n";
                 f = given.getMapping(entry.getKey());
                 if (f != null) {
-                    File blob = getBlobFile(f.getHash());
-                    content += Utils.readContentsAsString(blob);
+                    content += new String(BLOBS.read(f.getHash()),
+                            StandardCharsets.UTF_8);
                 }
                 content += ">>>>>>>";
                 Path file = Paths.get(entry.getKey());
                 Files.deleteIfExists(file);
                 Files.write(file, Collections.singleton(content));
-                copyToStaging(entry.getKey());
+                mgmt.stageFile(entry.getKey(), BLOBS.insert(file.toFile()));
                 Utils.message("Encountered a merge conflict.");
                 mgmt.setOutput();
                 break;
@@ -885,6 +1068,7 @@ public class Main {
                 throw Utils.error("Invalid case.");
             }
         }
+        writeWorkingFiles(checkouts);
     }
 
     /** Static method that implements gitlet merge functionality.
@@ -897,25 +1081,19 @@ public class Main {
         String splitPoint = mgmt.findSplitPoint(branchName);
         checksSplitPoint(splitPoint, branchName, mgmt);
         Commit spCommit = deserializeCommit(splitPoint);
-        List<FileToShaMapping> splitFiles = spCommit.getTrackedFiles();
-
         String givenHash = mgmt.getBranchHeadHash(branchName);
         Commit givenCommit = deserializeCommit(givenHash);
-        List<FileToShaMapping> givenFiles = givenCommit.getTrackedFiles();
-
         String currHash = mgmt.getHeadCommit();
         Commit currCommit = deserializeCommit(currHash);
-        List<FileToShaMapping> currFiles = currCommit.getTrackedFiles();
 
+        Map<String, String> changed = new TreeMap<String, String>();
+        Tree.diff(TREES, spCommit.getTree(), givenCommit.getTree(), "",
+                changed);
+        Tree.diff(TREES, spCommit.getTree(), currCommit.getTree(), "",
+                changed);
         Map<String, Action> allFiles = new TreeMap<String, Action>();
-        for (FileToShaMapping map : splitFiles) {
-            allFiles.put(map.getFilename(), Action.BLANK);
-        }
-        for (FileToShaMapping map : givenFiles) {
-            allFiles.put(map.getFilename(), Action.BLANK);
-        }
-        for (FileToShaMapping map : currFiles) {
-            allFiles.put(map.getFilename(), Action.BLANK);
+        for (String file : changed.keySet()) {
+            allFiles.put(file, Action.BLANK);
         }
         allFiles = getMergeActions(allFiles, currCommit, spCommit, givenCommit);
         performMergeActions(allFiles, currHash, givenHash, mgmt);
@@ -927,8 +1105,98 @@ public class Main {
 
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... Commands are run by the daemon for this
+     *  directory if one is running. */
     public static void main(String... args) {
+        File socket = getGitletFile(Daemon.SOCKET_FILE);
+        if (args.length == 1 && args[0].equals("daemon")) {
+            try {
+                checkForGitlet();
+                Daemon.serve(socket);
+            } catch (GitletException | IOException e) {
+                Utils.message(e.getMessage());
+            }
+        } else if (args.length == 1 && args[0].equals("batch")) {
+            try {
+                checkForGitlet();
+                batch(new BufferedReader(new InputStreamReader(System.in,
+                        StandardCharsets.UTF_8)));
+            } catch (GitletException | IOException e) {
+                Utils.message(e.getMessage());
+            }
+        } else if (!Daemon.forward(socket, args)) {
+            execute(args);
+        }
+    }
+
+    /** Runs the commands read from INPUT, one per line, with a single
+     *  Management object and index kept in memory. They are written at
+     *  the end and whenever a line reads "checkpoint". Blank lines are
+     *  skipped, and arguments may be quoted with double quotes.
+     */
+    private static void batch(BufferedReader input) throws IOException {
+        _batch = true;
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                List<String> args = splitCommand(line);
+                if (args.isEmpty()) {
+                    continue;
+                } else if (args.size() == 1
+                        && args.get(0).equals("checkpoint")) {
+                    checkpoint();
+                } else {
+                    execute(args.toArray(new String[0]));
+                }
+            }
+        } finally {
+            checkpoint();
+            _batch = false;
+            _mgmt = null;
+            _index = null;
+        }
+    }
+
+    /** Returns the words of LINE, where words are separated by white
+     *  space unless it is enclosed in double quotes. */
+    private static List<String> splitCommand(String line) {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false, inWord = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /** Drops the state kept from earlier commands that other processes
+     *  may have made stale, such as the commit graph and the list of
+     *  packs of each object store. */
+    static void reopen() {
+        _graph = null;
+        BLOBS.reopen();
+        COMMITS.reopen();
+        TREES.reopen();
+    }
+
+    /** Runs the command ARGS, which contains <COMMAND> <OPERAND> ....,
+     *  in this process. */
+    static void execute(String... args) {
         try {
             if (args.length == 0) {
                 throw Utils.error("Please enter a command.");
@@ -941,9 +1209,11 @@ public class Main {
                 break;
             case "add":
                 checkForGitlet();
-                checkOperandLength(args, 2);
-                checkFileExistence(args[1]);
-                add(args[1]);
+                if (args.length < 2) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                add(expandPaths(Arrays.asList(args).subList(1,
+                        args.length)));
                 break;
             case "commit":
                 checkForGitlet();
@@ -978,6 +1248,12 @@ public class Main {
         } catch (GitletException | IOException e) {
             Utils.message(e.getMessage());
         }
+        if (Boolean.getBoolean("gitlet.cacheStats")) {
+            System.err.printf("commit cache: %d commits, weight %d/%d, "
+                    + "%d hits, %d misses%n", COMMIT_CACHE.size(),
+                    COMMIT_CACHE.getWeight(), COMMIT_CACHE.getCapacity(),
+                    COMMIT_CACHE.getHits(), COMMIT_CACHE.getMisses());
+        }
     }
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
@@ -1054,52 +1330,37 @@ public class Main {
             throw Utils.error("Remote directory not found.");
         }
         String localHead = mgmt.getHeadCommit();
-        Management remoteMgmt = Utils.readObject(Utils.join(remDir,
-                "Management"), Management.class);
+        Management remoteMgmt = readManagement(Utils.join(remDir,
+                MGMT_FILE));
         if (remoteMgmt.branchExists(remoteBranchName)) {
             String remBranchHead =
                     remoteMgmt.getBranchHeadHash(remoteBranchName);
-            Commit comm = deserializeCommit(localHead);
-            boolean found = false;
-            String commString = localHead;
-            while (comm != null) {
-                if (commString.equals(remBranchHead)) {
-                    found = true;
-                    break;
-                }
-                commString = comm.getParent();
-                if (commString != null) {
-                    comm = deserializeCommit(commString);
-                } else {
-                    comm = null;
-                }
-            }
-            if (!found) {
+            if (!COMMITS.contains(remBranchHead)
+                    || !getCommitGraph().isAncestor(remBranchHead,
+                            localHead)) {
                 throw Utils.error("Please pull down remote changes "
                         + "before pushing.");
             }
         }
 
-        File remBlobDir = Utils.join(remDir, "blobs");
-        List<String> localBlobs = Utils.plainFilenamesIn(BLOB_DIR);
-        for (String blob : localBlobs) {
-            Files.copy(getBlobFile(blob).toPath(),
-                    Utils.join(remBlobDir, blob).toPath(),
-                    REPLACE_EXISTING);
-        }
-        File remCommitDir = Utils.join(remDir, "commits");
-        List<String> localCommits = Utils.plainFilenamesIn(COMMIT_DIR);
-        for (String commit : localCommits) {
-            Files.copy(getCommitFile(commit).toPath(),
-                    Utils.join(remCommitDir, commit).toPath(),
-                    REPLACE_EXISTING);
-        }
+        ObjectStore remCommits =
+                new ObjectStore(Utils.join(remDir, "commits"));
+        Transfer transfer = new Transfer(new File(GITLET_DIR), remDir);
+        transfer.addCommits(getCommitGraph().walk(localHead,
+                remCommits::contains));
+        transfer.run();
+        Utils.message("Transferred %d objects (%d bytes).",
+                transfer.getObjectCount(), transfer.getByteCount());
 
+        CommitGraph remGraph = new CommitGraph(Utils.join(remDir,
+                GRAPH_FILE), remCommits);
+        remGraph.ensure(localHead);
+        remGraph.write();
         remoteMgmt.updateBranch(remoteBranchName, localHead);
         if (remoteBranchName.equals(MASTER_BRANCH)) {
             remoteMgmt.setHead(localHead);
         }
-        Utils.writeObject(Utils.join(remDir, "Management"), remoteMgmt);
+        writeManagement(Utils.join(remDir, MGMT_FILE), remoteMgmt);
         serializeManagement(mgmt);
     }
 
@@ -1113,26 +1374,20 @@ public class Main {
         if (!remDir.isDirectory()) {
             throw Utils.error("Remote directory not found.");
         }
-        Management remoteMgmt = Utils.readObject(Utils.join(remDir,
-                "Management"), Management.class);
+        Management remoteMgmt = readManagement(Utils.join(remDir,
+                MGMT_FILE));
         if (!remoteMgmt.branchExists(remoteBranchName)) {
             throw Utils.error("That remote does not have that branch.");
         }
-        File remBlobDir = Utils.join(remDir, "blobs");
-        List<String> remBlobs = Utils.plainFilenamesIn(remBlobDir);
-        for (String blob : remBlobs) {
-            Files.copy(Utils.join(remBlobDir, blob).toPath(),
-                    getBlobFile(blob).toPath(), REPLACE_EXISTING);
-        }
-        File remCommitDir = Utils.join(remDir, "commits");
-        List<String> remCommits = Utils.plainFilenamesIn(remCommitDir);
-        for (String commit : remCommits) {
-            Files.copy(Utils.join(remCommitDir, commit).toPath(),
-                    getCommitFile(commit).toPath(), REPLACE_EXISTING);
-        }
         String remBranchHead =
                 remoteMgmt.getBranchHeadHash(remoteBranchName);
+        Transfer transfer = new Transfer(remDir, new File(GITLET_DIR));
+        transfer.addCommits(transfer.findMissing(remBranchHead));
+        transfer.run();
+        Utils.message("Transferred %d objects (%d bytes).",
+                transfer.getObjectCount(), transfer.getByteCount());
         mgmt.updateBranch(remoteName + "/" + remoteBranchName, remBranchHead);
+        getCommitGraph().ensure(remBranchHead);
         serializeManagement(mgmt);
     }
 
@@ -1145,6 +1400,15 @@ public class Main {
         merge(remoteName + "/" + remoteBranchName);
     }
 
+    /** Static method that implements gitlet gc functionality.
+     *  Moves all loose blobs, trees and commits into pack files.
+     */
+    private static void gc() throws IOException {
+        BLOBS.pack();
+        TREES.pack();
+        COMMITS.pack();
+    }
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     private static void mainEC(String... args) {
@@ -1175,6 +1439,11 @@ public class Main {
                 checkOperandLength(args, 3);
                 pull(args[1], args[2]);
                 break;
+            case "gc":
+                checkForGitlet();
+                checkOperandLength(args, 1);
+                gc();
+                break;
             default:
                 throw Utils.error("No command with that name exists.");
             }
@@ -4,8 +4,7 @@ import java.io.File;
 import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -14,6 +13,13 @@ import java.util.HashMap;
  */
 public class Management implements Serializable {
 
+    /** Serialization version, fixed so that management files written
+     *  before new fields were added remain readable. */
+    private static final long serialVersionUID = -5180131273389155971L;
+
+    /** Type byte of encoded management files. */
+    private static final char TYPE = 'M';
+
     /** List of all branches tracked by this gitlet directory. */
     private List<Branch> _branches;
 
@@ -23,6 +29,9 @@ public class Management implements Serializable {
     /** List with files staged for removal. */
     private List<String> _filesToRemove;
 
+    /** Files staged for addition, mapped to the hash of their blob. */
+    private Map<String, String> _stagedFiles;
+
     /** Currently active branch. */
     private String _currentBranch;
 
@@ -133,6 +142,32 @@ public class Management implements Serializable {
         return _filesToRemove;
     }
 
+    /** Stages file FILENAME for addition with blob hash HASH. */
+    public void stageFile(String filename, String hash) {
+        getStagedFiles().put(filename, hash);
+    }
+
+    /** Removes file FILENAME from staging for addition. */
+    public void unstageFile(String filename) {
+        getStagedFiles().remove(filename);
+    }
+
+    /** Returns all files that are staged for addition, mapped to the
+     *  hash of their blob and sorted by name. */
+    public Map<String, String> getStagedFiles() {
+        if (_stagedFiles == null) {
+            _stagedFiles = new TreeMap<String, String>();
+        }
+        return _stagedFiles;
+    }
+
+    /** Clears all files that are staged for addition. */
+    public void clearStaging() {
+        if (_stagedFiles != null) {
+            _stagedFiles.clear();
+        }
+    }
+
     /** Sets current branch to BRANCH. */
     public void setCurrentBranch(String branch) {
         _currentBranch = branch;
@@ -161,43 +196,14 @@ public class Management implements Serializable {
     }
 
     /** Returns commit hash of split point when merging
-     *  currently active branch with branch BRANCHNAME.
+     *  currently active branch with branch BRANCHNAME. In criss-cross
+     *  histories with several best common ancestors, the one with the
+     *  highest generation and latest timestamp is taken.
      */
     public String findSplitPoint(String branchName) {
-        String commString, splitPoint = null;
-        Commit comm;
-        Set<String> givenBranchCommits = new TreeSet<String>();
-        LinkedList<String> queue = new LinkedList<String>();
-
-        queue.add(getBranchHeadHash(branchName));
-        while (queue.size() > 0) {
-            commString = queue.poll();
-            givenBranchCommits.add(commString);
-
-            comm = Main.deserializeCommit(commString);
-            for (int i = 0; i <= 1; i++) {
-                if (comm.getParent(i) != null) {
-                    queue.add(comm.getParent(i));
-                }
-            }
-        }
-
-        queue.add(getHeadCommit());
-        while (queue.size() > 0) {
-            commString = queue.poll();
-            if (givenBranchCommits.contains(commString)) {
-                splitPoint = commString;
-                break;
-            }
-
-            comm = Main.deserializeCommit(commString);
-            for (int i = 0; i <= 1; i++) {
-                if (comm.getParent(i) != null) {
-                    queue.add(comm.getParent(i));
-                }
-            }
-        }
-        return splitPoint;
+        List<String> bases = Main.getCommitGraph().mergeBases(
+                getHeadCommit(), getBranchHeadHash(branchName));
+        return bases.isEmpty() ? null : bases.get(0);
     }
 
     /** Sets output flag. */
@@ -246,4 +252,61 @@ public class Management implements Serializable {
         return _remoteDirs.get(remoteName);
     }
 
+    /** Returns the binary encoding of this management object. The
+     *  output flag is not part of it. */
+    public byte[] encode() {
+        Codec.Output out = Codec.newOutput(TYPE);
+        out.writeOptionalHash(_head);
+        out.writeString(_currentBranch);
+        out.writeVarLong(_branches.size());
+        for (Branch b : _branches) {
+            b.encode(out);
+        }
+        out.writeVarLong(getRemovalFiles().size());
+        for (String file : getRemovalFiles()) {
+            out.writeString(file);
+        }
+        out.writeVarLong(getStagedFiles().size());
+        for (Map.Entry<String, String> staged : getStagedFiles().entrySet()) {
+            out.writeString(staged.getKey());
+            out.writeHash(staged.getValue());
+        }
+        int numRemotes = _remoteDirs == null ? 0 : _remoteDirs.size();
+        out.writeVarLong(numRemotes);
+        if (_remoteDirs != null) {
+            for (Map.Entry<String, File> remote : _remoteDirs.entrySet()) {
+                out.writeString(remote.getKey());
+                out.writeString(remote.getValue().getPath());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the management object encoded in BYTES, which may also
+     *  hold one written with Java serialization. */
+    public static Management decode(byte[] bytes) {
+        if (Codec.isLegacy(bytes)) {
+            return Utils.deserialize(bytes, Management.class);
+        }
+        Codec.Input in = Codec.newInput(bytes, TYPE);
+        Management mgmt = new Management();
+        mgmt._head = in.readOptionalHash();
+        mgmt._currentBranch = in.readString();
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            mgmt._branches.add(Branch.decode(in));
+        }
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            mgmt.addRemoval(in.readString());
+        }
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            String filename = in.readString();
+            mgmt.stageFile(filename, in.readHash());
+        }
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            String remoteName = in.readString();
+            mgmt.addRemoteDir(remoteName, in.readString());
+        }
+        return mgmt;
+    }
+
 }
@@ -0,0 +1,494 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/** Object store class for gitlet. Objects are addressed by their SHA-1
+ *  id and live either as loose files or inside one of the pack files in
+ *  the store's pack subdirectory. New objects are written loose, except
+ *  that a transfer may deliver many of them at once as a new pack.
+ *  Loose objects are sharded by the first two hex digits of their id,
+ *  so object ab12... is stored as ab/12.... Stores written before
+ *  sharding kept all loose objects in one flat directory; they are
+ *  migrated the first time they are opened.
+ *  @author Philipp
+ */
+public class ObjectStore {
+
+    /** Name of the subdirectory that holds pack files. */
+    private static final String PACK_DIR = "pack";
+
+    /** Name of the file that marks a store as sharded. */
+    private static final String SHARDED_MARKER = "sharded";
+
+    /** Number of hex digits of an id that name its shard. */
+    private static final int SHARD_LENGTH = 2;
+
+    /** Size of the buffers used to stream file contents. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Per-thread buffer through which file contents are streamed, so
+     *  that hashing a file never holds more of it in memory than this. */
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /** Directory of this store. */
+    private File _dir;
+
+    /** True iff the layout of this store has been checked. */
+    private boolean _layoutChecked;
+
+    /** Packs of this store, loaded on first use. */
+    private List<PackFile> _packs;
+
+    /** Names of the index files of all packs in _packs. */
+    private Set<String> _packNames;
+
+    /** Creates new object store in directory DIR. */
+    public ObjectStore(File dir) {
+        _dir = dir;
+    }
+
+    /** Returns the loose file of object ID, which might not exist. */
+    public File getLooseFile(String id) {
+        checkLayout();
+        return Utils.join(_dir, id.substring(0, SHARD_LENGTH),
+                id.substring(SHARD_LENGTH));
+    }
+
+    /** Returns true iff NAME is a possible object id. */
+    private static boolean isObjectId(String name) {
+        return name.length() == Utils.UID_LENGTH
+                && name.matches("[0-9a-f]+");
+    }
+
+    /** Moves the loose objects of a store written before sharding into
+     *  their shards, unless that has happened already. They are made
+     *  read-only on the way, like loose objects written since. */
+    private synchronized void checkLayout() {
+        if (_layoutChecked) {
+            return;
+        }
+        _layoutChecked = true;
+        File marker = Utils.join(_dir, SHARDED_MARKER);
+        if (!_dir.isDirectory() || marker.exists()) {
+            return;
+        }
+        try {
+            for (String name : Utils.plainFilenamesIn(_dir)) {
+                if (isObjectId(name)) {
+                    File shard = Utils.join(_dir,
+                            name.substring(0, SHARD_LENGTH));
+                    shard.mkdir();
+                    File loose = Utils.join(_dir, name);
+                    loose.setReadOnly();
+                    Files.move(loose.toPath(),
+                            Utils.join(shard, name.substring(SHARD_LENGTH))
+                                    .toPath(), REPLACE_EXISTING);
+                }
+            }
+            marker.createNewFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Creates the directory of this store if it does not exist. */
+    private void createDir() throws IOException {
+        checkLayout();
+        if (!_dir.isDirectory()) {
+            _dir.mkdirs();
+            Utils.join(_dir, SHARDED_MARKER).createNewFile();
+        }
+    }
+
+    /** Returns all packs of this store. */
+    private synchronized List<PackFile> getPacks() {
+        if (_packs == null) {
+            scanPacks();
+        }
+        return _packs;
+    }
+
+    /** Opens the packs in the pack directory of this store that are not
+     *  open yet. Returns true iff there were any. */
+    private synchronized boolean scanPacks() {
+        if (_packs == null) {
+            _packs = new CopyOnWriteArrayList<PackFile>();
+            _packNames = new HashSet<String>();
+        }
+        boolean found = false;
+        File packDir = Utils.join(_dir, PACK_DIR);
+        List<String> files = Utils.plainFilenamesIn(packDir);
+        if (files != null) {
+            for (String name : files) {
+                if (name.startsWith("pack-")
+                        && name.endsWith(PackFile.INDEX_EXT)
+                        && _packNames.add(name)) {
+                    try {
+                        _packs.add(new PackFile(new File(packDir, name)));
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(
+                                excp.getMessage());
+                    }
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /** Opens the packs written into this store by other processes since
+     *  it last looked. */
+    public void reopen() {
+        scanPacks();
+    }
+
+    /** Returns the pack of this store that holds object ID, or null if
+     *  it is not packed. Packs written since this store last looked, for
+     *  example by a transfer into it, are picked up as well. */
+    private PackFile findPack(String id) {
+        List<PackFile> packs = getPacks();
+        do {
+            for (PackFile pack : packs) {
+                if (pack.find(id) >= 0) {
+                    return pack;
+                }
+            }
+        } while (scanPacks());
+        return null;
+    }
+
+    /** Returns true iff object ID is in this store. */
+    public boolean contains(String id) {
+        if (id == null) {
+            return false;
+        }
+        if (getLooseFile(id).isFile()) {
+            return true;
+        }
+        for (PackFile pack : getPacks()) {
+            if (pack.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the contents of object ID. Throws IllegalArgumentException
+     *  if there is no such object. */
+    public byte[] read(String id) {
+        File loose = getLooseFile(id);
+        if (loose.isFile()) {
+            return Utils.readContents(loose);
+        }
+        PackFile pack = findPack(id);
+        if (pack == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        try {
+            return pack.read(pack.find(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a new temporary file in the directory of this store. */
+    private File createTempFile() throws IOException {
+        createDir();
+        return File.createTempFile("tmp-", null, _dir);
+    }
+
+    /** Atomically renames the complete temporary file TMP to the loose
+     *  file of object ID, so that readers never see a partial object.
+     *  Loose files are read-only, since objects never change. */
+    private void moveIntoPlace(File tmp, String id) throws IOException {
+        File loose = getLooseFile(id);
+        loose.getParentFile().mkdir();
+        tmp.setReadOnly();
+        Files.move(tmp.toPath(), loose.toPath(), ATOMIC_MOVE);
+    }
+
+    /** Writes CONTENTS as object ID unless it is already present. */
+    public void write(String id, byte[] contents) {
+        if (!contains(id)) {
+            try {
+                File tmp = createTempFile();
+                try {
+                    Files.write(tmp.toPath(), contents);
+                    moveIntoPlace(tmp, id);
+                } finally {
+                    tmp.delete();
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Writes the encoded object CONTENTS, hashing the same bytes that
+     *  are stored, and returns its id. */
+    public String write(byte[] contents) {
+        String id = Utils.sha1(contents);
+        write(id, contents);
+        return id;
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, streaming them
+     *  through a fixed-size buffer and also writing them to OUT unless
+     *  it is null. */
+    private static String stream(File file, FileChannel out)
+            throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                    + "SHA-1");
+        }
+        ByteBuffer buf = BUFFER.get();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            buf.clear();
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                if (out != null) {
+                    buf.rewind();
+                    while (buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                }
+                buf.clear();
+            }
+        }
+        return Utils.bytesToHex(md.digest());
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE without reading
+     *  the whole file into memory. */
+    public static String hash(File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try {
+            return stream(file, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the contents of FILE as a new object and returns its id.
+     *  The file is hashed and copied in a single pass. */
+    public String insert(File file) throws IOException {
+        File tmp = createTempFile();
+        try {
+            String id;
+            try (FileChannel out = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                id = stream(file, out);
+            }
+            if (!contains(id)) {
+                moveIntoPlace(tmp, id);
+            }
+            return id;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Writes the contents of object ID to OUT. Returns the number of
+     *  bytes written. */
+    public long transferTo(String id, WritableByteChannel out)
+            throws IOException {
+        File loose = getLooseFile(id);
+        if (loose.isFile()) {
+            try (FileChannel in = FileChannel.open(loose.toPath(),
+                    StandardOpenOption.READ)) {
+                long length = in.size(), done = 0;
+                while (done < length) {
+                    done += in.transferTo(done, length - done, out);
+                }
+                return length;
+            }
+        }
+        PackFile pack = findPack(id);
+        if (pack == null) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return pack.transferTo(pack.find(id), out);
+    }
+
+    /** Writes the contents of object ID into a new writable file DEST. */
+    public void copyTo(String id, File dest) throws IOException {
+        File loose = getLooseFile(id);
+        if (loose.isFile()) {
+            Files.copy(loose.toPath(), dest.toPath());
+            dest.setWritable(true);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(dest.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            transferTo(id, out);
+        }
+    }
+
+    /** Creates DEST as a hard link to the loose file of object ID, so
+     *  that it shares its storage instead of copying it. DEST is copied
+     *  instead if the object is packed or the file system cannot link
+     *  it, for example because DEST is on another device. Returns true
+     *  iff DEST was linked. The loose file is made read-only first, in
+     *  case an older version of gitlet stored it writable, so that DEST
+     *  cannot be changed in place and the object with it. */
+    public boolean linkTo(String id, File dest) throws IOException {
+        File loose = getLooseFile(id);
+        if (loose.isFile()) {
+            loose.setReadOnly();
+            try {
+                Files.createLink(dest.toPath(), loose.toPath());
+                return true;
+            } catch (UnsupportedOperationException | IOException excp) {
+                if (dest.exists()) {
+                    throw excp;
+                }
+            }
+        }
+        copyTo(id, dest);
+        return false;
+    }
+
+    /** Copies object ID from this store into the store OTHER through a
+     *  temporary file that is renamed into place once complete. Returns
+     *  the number of bytes copied. */
+    public long copyTo(String id, ObjectStore other) throws IOException {
+        File tmp = other.createTempFile();
+        try {
+            long length;
+            try (FileChannel out = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                length = transferTo(id, out);
+            }
+            other.moveIntoPlace(tmp, id);
+            return length;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Copies the objects IDS from this store into a single new pack of
+     *  the store OTHER, streaming each of them straight from its loose
+     *  file or pack. The pack index is written last, so OTHER sees none
+     *  of the objects until all of them are in place. Returns the number
+     *  of bytes copied. */
+    public long packTo(Collection<String> ids, ObjectStore other)
+            throws IOException {
+        other.createDir();
+        PackFile pack = PackFile.write(Utils.join(other._dir, PACK_DIR),
+                this, new ArrayList<String>(ids));
+        other.scanPacks();
+        long bytes = 0;
+        for (int i = 0; i < pack.size(); i += 1) {
+            bytes += pack.getLength(i);
+        }
+        return bytes;
+    }
+
+    /** Returns the ids of all loose objects in shard SHARD. */
+    private List<String> listShard(String shard) {
+        List<String> ids = new ArrayList<String>();
+        List<String> names = Utils.plainFilenamesIn(Utils.join(_dir, shard));
+        if (names != null) {
+            for (String name : names) {
+                ids.add(shard + name);
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the ids of all loose objects in this store. */
+    private List<String> listLoose() {
+        checkLayout();
+        List<String> ids = new ArrayList<String>();
+        String[] shards = _dir.list();
+        if (shards != null) {
+            Arrays.sort(shards);
+            for (String shard : shards) {
+                if (shard.length() == SHARD_LENGTH) {
+                    ids.addAll(listShard(shard));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the ids of all objects in this store in sorted order. */
+    public List<String> list() {
+        TreeSet<String> ids = new TreeSet<String>(listLoose());
+        for (PackFile pack : getPacks()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                ids.add(pack.getId(i));
+            }
+        }
+        return new ArrayList<String>(ids);
+    }
+
+    /** Returns the smallest id in this store starting with PREFIX, or
+     *  null if there is none or PREFIX is not hexadecimal. */
+    public String findByPrefix(String prefix) {
+        if (!PackFile.isHex(prefix)) {
+            return null;
+        }
+        checkLayout();
+        TreeSet<String> ids = new TreeSet<String>();
+        List<String> loose;
+        if (prefix.length() >= SHARD_LENGTH) {
+            loose = listShard(prefix.substring(0, SHARD_LENGTH));
+        } else {
+            loose = listLoose();
+        }
+        for (String id : loose) {
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+        for (PackFile pack : getPacks()) {
+            ids.addAll(pack.findByPrefix(prefix));
+        }
+        return ids.isEmpty() ? null : ids.first();
+    }
+
+    /** Moves all loose objects of this store into a new pack. Returns
+     *  the number of objects packed. */
+    public int pack() throws IOException {
+        List<String> loose = listLoose();
+        if (loose.isEmpty()) {
+            return 0;
+        }
+        PackFile.write(Utils.join(_dir, PACK_DIR), this, loose);
+        scanPacks();
+        for (String id : loose) {
+            File file = getLooseFile(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+        return loose.size();
+    }
+}
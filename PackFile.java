@@ -0,0 +1,276 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/** Pack file class for gitlet. A pack stores many objects back to back
+ *  in one data file. Its index holds a fan-out table over the first id
+ *  byte followed by the sorted ids and their offsets and lengths, and is
+ *  memory-mapped and binary-searched by object id.
+ *  @author Philipp
+ */
+public class PackFile {
+
+    /** Magic number at the start of every pack data file ("GLPK"). */
+    private static final int PACK_MAGIC = 0x474c504b;
+
+    /** Magic number at the start of every pack index file ("GLIX"). */
+    private static final int INDEX_MAGIC = 0x474c4958;
+
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+
+    /** Length of a raw object id in bytes. */
+    private static final int ID_BYTES = 20;
+
+    /** Number of entries in the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** Size of the header (magic, version, count) of both files. */
+    private static final int HEADER = 12;
+
+    /** File extension of pack data files. */
+    static final String PACK_EXT = ".pack";
+
+    /** File extension of pack index files. */
+    static final String INDEX_EXT = ".idx";
+
+    /** Pack data file. */
+    private File _pack;
+
+    /** Memory-mapped contents of the index file. */
+    private MappedByteBuffer _index;
+
+    /** Number of objects in this pack. */
+    private int _count;
+
+    /** Opens the pack whose index file is INDEX. */
+    public PackFile(File index) throws IOException {
+        String name = index.getName();
+        _pack = new File(index.getParentFile(), name.substring(0,
+                name.length() - INDEX_EXT.length()) + PACK_EXT);
+        try (FileChannel channel = FileChannel.open(index.toPath(),
+                StandardOpenOption.READ)) {
+            _index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        if (_index.getInt(0) != INDEX_MAGIC || _index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("corrupt pack index "
+                    + index);
+        }
+        _count = _index.getInt(8);
+    }
+
+    /** Returns the number of objects in this pack. */
+    public int size() {
+        return _count;
+    }
+
+    /** Returns the position of the first id within the index. */
+    private int idsStart() {
+        return HEADER + FANOUT * 4;
+    }
+
+    /** Returns the number of ids whose first byte is at most B. */
+    private int fanout(int b) {
+        return b < 0 ? 0 : _index.getInt(HEADER + b * 4);
+    }
+
+    /** Compares the id at position POS with RAW in unsigned byte order. */
+    private int compareId(int pos, byte[] raw) {
+        int base = idsStart() + pos * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(_index.get(base + i) & 0xff,
+                    raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the position of object ID in this pack, or -1. */
+    public int find(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] raw = Utils.hexToBytes(id);
+        int lo = fanout((raw[0] & 0xff) - 1), hi = fanout(raw[0] & 0xff) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, raw);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns true iff S consists of lowercase hexadecimal digits only,
+     *  as object ids do. */
+    static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the hexadecimal id of the object at position POS. */
+    public String getId(int pos) {
+        byte[] raw = new byte[ID_BYTES];
+        _index.get(idsStart() + pos * ID_BYTES, raw);
+        return Utils.bytesToHex(raw);
+    }
+
+    /** Returns the offset in the data file of the object at POS. */
+    private long getOffset(int pos) {
+        return _index.getLong(idsStart() + _count * ID_BYTES + pos * 8);
+    }
+
+    /** Returns the length of the object at position POS. */
+    public long getLength(int pos) {
+        return _index.getLong(idsStart() + _count * (ID_BYTES + 8)
+                + pos * 8);
+    }
+
+    /** Returns ids of all objects in this pack that start with PREFIX,
+     *  in sorted order. A PREFIX that is not hexadecimal matches no
+     *  object. */
+    public List<String> findByPrefix(String prefix) {
+        List<String> result = new ArrayList<String>();
+        if (!isHex(prefix)) {
+            return result;
+        }
+        int lo = 0, hi = _count;
+        if (prefix.length() >= 2) {
+            int b = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = fanout(b - 1);
+            hi = fanout(b);
+        }
+        for (int i = lo; i < hi; i += 1) {
+            String id = getId(i);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of the object at position POS. */
+    public byte[] read(int pos) throws IOException {
+        long length = getLength(pos);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("object too large to read into memory");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) length);
+        try (FileChannel channel = FileChannel.open(_pack.toPath(),
+                StandardOpenOption.READ)) {
+            long offset = getOffset(pos);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) {
+                    throw new IOException("truncated pack " + _pack);
+                }
+            }
+        }
+        return buf.array();
+    }
+
+    /** Writes the contents of the object at position POS to OUT.
+     *  Returns the number of bytes written. */
+    public long transferTo(int pos, WritableByteChannel out)
+            throws IOException {
+        long offset = getOffset(pos), length = getLength(pos), done = 0;
+        try (FileChannel channel = FileChannel.open(_pack.toPath(),
+                StandardOpenOption.READ)) {
+            while (done < length) {
+                done += channel.transferTo(offset + done, length - done, out);
+            }
+        }
+        return length;
+    }
+
+    /** Writes the objects IDS, whose contents are read from SOURCE, into
+     *  a new pack in directory DIR and returns it. */
+    public static PackFile write(File dir, ObjectStore source,
+                                 List<String> ids) throws IOException {
+        List<String> sorted = new ArrayList<String>(ids);
+        Collections.sort(sorted);
+        String name = "pack-" + Utils.sha1(String.join("", sorted));
+        File index = new File(dir, name + INDEX_EXT);
+        if (index.exists()) {
+            return new PackFile(index);
+        }
+        dir.mkdirs();
+        long[] offsets = new long[sorted.size()];
+        long[] lengths = new long[sorted.size()];
+        File tmpPack = File.createTempFile("tmp-", PACK_EXT, dir);
+        try (FileChannel out = FileChannel.open(tmpPack.toPath(),
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(PACK_MAGIC).putInt(VERSION).putInt(sorted.size());
+            header.flip();
+            out.write(header);
+            for (int i = 0; i < sorted.size(); i += 1) {
+                offsets[i] = out.position();
+                lengths[i] = source.transferTo(sorted.get(i), out);
+                out.position(offsets[i] + lengths[i]);
+            }
+        }
+        Files.move(tmpPack.toPath(), new File(dir, name + PACK_EXT).toPath(),
+                ATOMIC_MOVE);
+
+        File tmpIndex = File.createTempFile("tmp-", INDEX_EXT, dir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpIndex)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            int[] counts = new int[FANOUT];
+            for (String id : sorted) {
+                counts[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id : sorted) {
+                out.write(Utils.hexToBytes(id));
+            }
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (long length : lengths) {
+                out.writeLong(length);
+            }
+        }
+        Files.move(tmpIndex.toPath(), index.toPath(), ATOMIC_MOVE);
+        return new PackFile(index);
+    }
+
+    @Override
+    public String toString() {
+        return "Pack " + _pack.getName();
+    }
+}
@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+/** Transfer class for gitlet. A transfer copies commits from the object
+ *  stores of one repository to those of another together with the
+ *  trees and blobs they introduce. The objects a commit introduces are
+ *  found by diffing its tree against that of its first parent, and
+ *  objects the destination has already are skipped. Blobs and trees are
+ *  copied before the commits that refer to them. Large sets of objects
+ *  are sent as one pack instead of many loose files.
+ *  @author Philipp
+ */
+public class Transfer {
+
+    /** Names of the blob, tree and commit stores in a .gitlet dir. */
+    private static final String[] STORES = {"blobs", "trees", "commits"};
+
+    /** Default number of missing objects of one store from which on they
+     *  are sent as a pack rather than as loose objects. */
+    private static final int PACK_THRESHOLD = 64;
+
+    /** Source stores of blobs, trees and commits. */
+    private ObjectStore[] _from;
+
+    /** Destination stores of blobs, trees and commits. */
+    private ObjectStore[] _to;
+
+    /** Blobs, trees and commits to be copied, in this order. */
+    private List<Set<String>> _objects;
+
+    /** Commits read from the source so far. */
+    private Map<String, Commit> _read;
+
+    /** Number of objects copied. */
+    private int _copied;
+
+    /** Number of bytes copied. */
+    private long _bytes;
+
+    /** Creates new transfer from the repository with .gitlet directory
+     *  FROM to the one with .gitlet directory TO. */
+    public Transfer(File from, File to) {
+        _from = new ObjectStore[STORES.length];
+        _to = new ObjectStore[STORES.length];
+        _objects = new ArrayList<Set<String>>();
+        for (int i = 0; i < STORES.length; i += 1) {
+            _from[i] = new ObjectStore(Utils.join(from, STORES[i]));
+            _to[i] = new ObjectStore(Utils.join(to, STORES[i]));
+            _objects.add(new TreeSet<String>());
+        }
+        _read = new HashMap<String, Commit>();
+    }
+
+    /** Returns the commit ID read from the source. */
+    private Commit read(String id) {
+        Commit comm = _read.get(id);
+        if (comm == null) {
+            comm = Commit.decode(_from[2].read(id));
+            _read.put(id, comm);
+        }
+        return comm;
+    }
+
+    /** Returns commit HEAD of the source and all its ancestors that are
+     *  reached without passing through a commit the destination has
+     *  already. Only those commits are read. */
+    public List<String> findMissing(String head) {
+        List<String> missing = new ArrayList<String>();
+        Set<String> seen = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        seen.add(head);
+        queue.add(head);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (_to[2].contains(id)) {
+                continue;
+            }
+            missing.add(id);
+            Commit comm = read(id);
+            for (int i = 0; i < 2; i += 1) {
+                String parent = comm.getParent(i);
+                if (parent != null && seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /** Adds the commits IDS, none of which the destination has, to this
+     *  transfer together with the objects they introduce. */
+    public void addCommits(Collection<String> ids) {
+        for (String id : ids) {
+            Commit comm = read(id);
+            _objects.get(2).add(id);
+            if (!comm.hasTree()) {
+                for (FileToShaMapping file : comm.getTrackedFiles()) {
+                    _objects.get(0).add(file.getHash());
+                }
+                continue;
+            }
+            String parentTree = null;
+            if (comm.getParent() != null) {
+                Commit parent = read(comm.getParent());
+                parentTree = parent.hasTree() ? parent.getTree() : null;
+            }
+            Tree.collect(_from[1], parentTree, comm.getTree(),
+                    _objects.get(1), _objects.get(0));
+        }
+    }
+
+    /** Copies all objects of this transfer that the destination does
+     *  not have yet. If at least as many objects of one store are missing
+     *  as the system property gitlet.packThreshold says, they are sent
+     *  as a single pack; otherwise they are copied as loose objects using
+     *  as many threads as the system property gitlet.transferThreads
+     *  allows. All blobs and trees are copied before the first commit,
+     *  and all commits before this returns, so a ref updated afterwards
+     *  never points at missing objects. */
+    public void run() throws IOException {
+        int parallelism = Workers.parallelism("gitlet.transferThreads");
+        int threshold = Integer.getInteger("gitlet.packThreshold",
+                PACK_THRESHOLD);
+        for (int i = 0; i < STORES.length; i += 1) {
+            ObjectStore from = _from[i], to = _to[i];
+            List<String> missing = new ArrayList<String>();
+            for (String id : _objects.get(i)) {
+                if (!to.contains(id)) {
+                    missing.add(id);
+                }
+            }
+            if (!missing.isEmpty() && missing.size() >= threshold) {
+                _bytes += from.packTo(missing, to);
+                _copied += missing.size();
+            } else {
+                List<Callable<Long>> copies = new ArrayList<Callable<Long>>();
+                for (String id : missing) {
+                    copies.add(() -> from.copyTo(id, to));
+                }
+                for (long bytes : Workers.invokeAll(copies, parallelism)) {
+                    _bytes += bytes;
+                    _copied += 1;
+                }
+            }
+            _objects.get(i).clear();
+        }
+    }
+
+    /** Returns the number of objects copied. */
+    public int getObjectCount() {
+        return _copied;
+    }
+
+    /** Returns the number of bytes copied. */
+    public long getByteCount() {
+        return _bytes;
+    }
+}
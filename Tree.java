@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Tree class for gitlet. A tree describes one directory: the blob
+ *  hash of every file directly inside it and the tree hash of every
+ *  subdirectory. Trees are content-addressed, so commits that share an
+ *  unchanged directory share its tree, and two trees with the same hash
+ *  need not be compared any further.
+ *  @author Philipp
+ */
+public class Tree {
+
+    /** Separator between the components of a path. */
+    private static final char SEPARATOR = '/';
+
+    /** Type byte of encoded trees. */
+    private static final char TYPE = 'T';
+
+    /** Files directly in this directory, mapped to their blob hashes. */
+    private TreeMap<String, String> _files;
+
+    /** Subdirectories of this directory, mapped to their tree hashes. */
+    private TreeMap<String, String> _dirs;
+
+    /** Store this tree was read from. */
+    private ObjectStore _store;
+
+    /** Subdirectory trees that have been read already. */
+    private Map<String, Tree> _loaded;
+
+    /** Creates new empty tree. */
+    public Tree() {
+        _files = new TreeMap<String, String>();
+        _dirs = new TreeMap<String, String>();
+    }
+
+    /** Returns the binary encoding of this tree. */
+    public byte[] encode() {
+        Codec.Output out = Codec.newOutput(TYPE);
+        for (Map<String, String> entries : List.of(_files, _dirs)) {
+            out.writeVarLong(entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeHash(entry.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree encoded in BYTES. */
+    public static Tree decode(byte[] bytes) {
+        Codec.Input in = Codec.newInput(bytes, TYPE);
+        Tree tree = new Tree();
+        for (Map<String, String> entries : List.of(tree._files, tree._dirs)) {
+            for (int i = in.readCount(); i > 0; i -= 1) {
+                String name = in.readString();
+                entries.put(name, in.readHash());
+            }
+        }
+        return tree;
+    }
+
+    /** Returns the tree HASH read from STORE. */
+    public static Tree read(ObjectStore store, String hash) {
+        Tree tree = decode(store.read(hash));
+        tree._store = store;
+        return tree;
+    }
+
+    /** Writes TREE to STORE and returns its hash. */
+    public static String write(ObjectStore store, Tree tree) {
+        return store.write(tree.encode());
+    }
+
+    /** Returns true iff this tree has neither files nor directories. */
+    public boolean isEmpty() {
+        return _files.isEmpty() && _dirs.isEmpty();
+    }
+
+    /** Returns the tree of subdirectory NAME, or null if there is none. */
+    private Tree getDir(String name) {
+        String hash = _dirs.get(name);
+        if (hash == null) {
+            return null;
+        }
+        if (_loaded == null) {
+            _loaded = new HashMap<String, Tree>();
+        }
+        Tree dir = _loaded.get(name);
+        if (dir == null) {
+            dir = read(_store, hash);
+            _loaded.put(name, dir);
+        }
+        return dir;
+    }
+
+    /** Returns the blob hash of the file at PATH below this tree, or
+     *  null if there is no such file. Only the trees along PATH are
+     *  read. */
+    public String find(String path) {
+        int slash = path.indexOf(SEPARATOR);
+        if (slash < 0) {
+            return _files.get(path);
+        }
+        Tree dir = getDir(path.substring(0, slash));
+        return dir == null ? null : dir.find(path.substring(slash + 1));
+    }
+
+    /** Applies CHANGES, which map paths to new blob hashes or to null
+     *  for removed files, to tree HASH in STORE, which may be null for
+     *  an empty tree. Only trees along changed paths are read and
+     *  written. Returns the hash of the new tree, or null if it is
+     *  empty. */
+    private static String apply(ObjectStore store, String hash,
+                                SortedMap<String, String> changes) {
+        Tree tree = hash == null ? new Tree() : read(store, hash);
+        Map<String, SortedMap<String, String>> dirChanges =
+            new TreeMap<String, SortedMap<String, String>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash >= 0) {
+                String dir = path.substring(0, slash);
+                if (!dirChanges.containsKey(dir)) {
+                    dirChanges.put(dir, new TreeMap<String, String>());
+                }
+                dirChanges.get(dir).put(path.substring(slash + 1),
+                        change.getValue());
+            } else if (change.getValue() == null) {
+                tree._files.remove(path);
+            } else {
+                tree._files.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, SortedMap<String, String>> entry
+                 : dirChanges.entrySet()) {
+            String dir = entry.getKey();
+            String child = apply(store, tree._dirs.get(dir), entry.getValue());
+            if (child == null) {
+                tree._dirs.remove(dir);
+            } else {
+                tree._dirs.put(dir, child);
+            }
+        }
+        return tree.isEmpty() ? null : write(store, tree);
+    }
+
+    /** Applies CHANGES, which map paths to new blob hashes or to null
+     *  for removed files, to the root tree HASH in STORE, which may be
+     *  null for an empty tree. Returns the hash of the new root tree. */
+    public static String update(ObjectStore store, String hash,
+                                SortedMap<String, String> changes) {
+        if (changes.isEmpty() && hash != null) {
+            return hash;
+        }
+        String result = apply(store, hash, changes);
+        return result == null ? write(store, new Tree()) : result;
+    }
+
+    /** Adds every file below tree HASH in STORE to OUT, mapping its path
+     *  prefixed with PREFIX to its blob hash. */
+    public static void flatten(ObjectStore store, String hash, String prefix,
+                               Map<String, String> out) {
+        Tree tree = read(store, hash);
+        for (Map.Entry<String, String> file : tree._files.entrySet()) {
+            out.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree._dirs.entrySet()) {
+            flatten(store, dir.getValue(), prefix + dir.getKey() + SEPARATOR,
+                    out);
+        }
+    }
+
+    /** Adds to TREES the hash of tree TO in STORE and of every subtree
+     *  below it that differs from the corresponding subtree of FROM,
+     *  which may be null for an empty tree, and adds to BLOBS the hash
+     *  of every file below TO whose blob differs from that in FROM.
+     *  Subtrees with identical hashes are skipped without being read. */
+    public static void collect(ObjectStore store, String from, String to,
+                               Set<String> trees, Set<String> blobs) {
+        if (to == null || to.equals(from)) {
+            return;
+        }
+        trees.add(to);
+        Tree a = from == null ? new Tree() : read(store, from);
+        Tree b = read(store, to);
+        for (Map.Entry<String, String> file : b._files.entrySet()) {
+            if (!file.getValue().equals(a._files.get(file.getKey()))) {
+                blobs.add(file.getValue());
+            }
+        }
+        for (Map.Entry<String, String> dir : b._dirs.entrySet()) {
+            collect(store, a._dirs.get(dir.getKey()), dir.getValue(), trees,
+                    blobs);
+        }
+    }
+
+    /** Adds to OUT every file that differs between trees FROM and TO in
+     *  STORE, either of which may be null for an empty tree. Paths are
+     *  prefixed with PREFIX and mapped to their blob hash in TO, or to
+     *  null if they do not exist there. Subtrees with identical hashes
+     *  are skipped without being read. */
+    public static void diff(ObjectStore store, String from, String to,
+                            String prefix, Map<String, String> out) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        Tree a = from == null ? new Tree() : read(store, from);
+        Tree b = to == null ? new Tree() : read(store, to);
+        for (Map.Entry<String, String> file : a._files.entrySet()) {
+            if (!b._files.containsKey(file.getKey())) {
+                out.put(prefix + file.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, String> file : b._files.entrySet()) {
+            if (!file.getValue().equals(a._files.get(file.getKey()))) {
+                out.put(prefix + file.getKey(), file.getValue());
+            }
+        }
+        Set<String> dirs = new TreeSet<String>(a._dirs.keySet());
+        dirs.addAll(b._dirs.keySet());
+        for (String dir : dirs) {
+            diff(store, a._dirs.get(dir), b._dirs.get(dir),
+                    prefix + dir + SEPARATOR, out);
+        }
+    }
+}
@@ -1,9 +1,24 @@
 package gitlet;
 
 import ucb.junit.textui;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /** The suite of all JUnit tests for the gitlet package.
  *  @author
  */
@@ -20,6 +35,581 @@ public class UnitTest {
     public void placeholderTest() {
     }
 
+    /** Directory for the files written by a test. */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Returns a made-up object id derived from NAME. */
+    private static String id(String name) {
+        return Utils.sha1(name);
+    }
+
+    /** Tests that a commit with parents and a root tree survives being
+     *  encoded and decoded. */
+    @Test
+    public void commitCodecTest() {
+        Commit comm = new Commit("merge", -1234567L);
+        comm.addParent(id("first"));
+        comm.addParent(id("second"));
+        comm.setTree(id("tree"));
+        Commit copy = Commit.decode(comm.encode());
+        assertEquals("merge", copy.getMessage());
+        assertEquals(-1234567L, copy.getTimestamp());
+        assertEquals(id("first"), copy.getParent(0));
+        assertEquals(id("second"), copy.getParent(1));
+        assertTrue(copy.isMergeCommit());
+        assertTrue(copy.hasTree());
+        assertEquals(id("tree"), copy.getTree());
+        assertArrayEquals(comm.encode(), copy.encode());
+    }
+
+    /** Tests that a commit listing its tracked files directly, as those
+     *  written before tree objects do, survives being encoded and
+     *  decoded. */
+    @Test
+    public void commitFileListCodecTest() {
+        Commit comm = Commit.newInitialCommit();
+        Commit copy = Commit.decode(comm.encode());
+        assertEquals("initial commit", copy.getMessage());
+        assertNull(copy.getParent());
+        assertFalse(copy.hasTree());
+        assertTrue(copy.getTrackedFiles().isEmpty());
+
+        comm = new Commit("files", 42L);
+        comm.addParent(id("parent"));
+        comm.getTrackedFiles().add(new FileToShaMapping("a.txt", id("a")));
+        comm.getTrackedFiles().add(new FileToShaMapping("d/b.txt", id("b")));
+        copy = Commit.decode(comm.encode());
+        assertFalse(copy.isMergeCommit());
+        assertEquals(id("parent"), copy.getParent());
+        assertEquals(2, copy.getTrackedFiles().size());
+        assertEquals(id("a"), copy.getMapping("a.txt").getHash());
+        assertEquals(id("b"), copy.getMapping("d/b.txt").getHash());
+        assertNull(copy.getMapping("c.txt"));
+    }
+
+    /** Tests that branches, staging area and remotes of a management
+     *  object survive being encoded and decoded. */
+    @Test
+    public void managementCodecTest() {
+        Management mgmt = new Management();
+        mgmt.updateBranch("master", id("one"));
+        mgmt.updateBranch("other", id("two"));
+        mgmt.setCurrentBranch("other");
+        mgmt.setHead(id("two"));
+        mgmt.stageFile("staged.txt", id("staged"));
+        mgmt.addRemoval("removed.txt");
+        mgmt.addRemoteDir("origin", "../remote/.gitlet");
+        Management copy = Management.decode(mgmt.encode());
+        assertEquals(id("two"), copy.getHeadCommit());
+        assertEquals("other", copy.getCurrentBranch());
+        assertEquals(2, copy.getBranches().size());
+        assertEquals(id("one"), copy.getBranchHeadHash("master"));
+        assertEquals(id("two"), copy.getBranchHeadHash("other"));
+        Map<String, String> staged = new TreeMap<String, String>();
+        staged.put("staged.txt", id("staged"));
+        assertEquals(staged, copy.getStagedFiles());
+        assertEquals(Arrays.asList("removed.txt"), copy.getRemovalFiles());
+        assertEquals(new File("../remote/.gitlet"),
+                copy.getRemoteDir("origin"));
+        assertArrayEquals(mgmt.encode(), copy.encode());
+    }
+
+    /** Tests that a branch, including one without a head commit,
+     *  survives being encoded and decoded. */
+    @Test
+    public void branchCodecTest() {
+        Codec.Output out = Codec.newOutput('B');
+        new Branch("master", id("head")).encode(out);
+        new Branch("empty", null).encode(out);
+        Codec.Input in = Codec.newInput(out.toByteArray(), 'B');
+        Branch master = Branch.decode(in);
+        assertEquals("master", master.getName());
+        assertEquals(id("head"), master.getHead());
+        Branch empty = Branch.decode(in);
+        assertEquals("empty", empty.getName());
+        assertNull(empty.getHead());
+    }
+
+    /** Returns a sorted map of the paths and hashes in PAIRS, which
+     *  alternate between the two. */
+    private static TreeMap<String, String> files(String... pairs) {
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            result.put(pairs[i], pairs[i + 1]);
+        }
+        return result;
+    }
+
+    /** Returns the files below tree HASH in STORE by path. */
+    private static Map<String, String> flatten(ObjectStore store,
+                                               String hash) {
+        Map<String, String> result = new TreeMap<String, String>();
+        Tree.flatten(store, hash, "", result);
+        return result;
+    }
+
+    /** Tests that updating trees adds, changes and removes files in
+     *  nested directories, drops directories left empty, and yields the
+     *  same tree for the same files however it was built. */
+    @Test
+    public void treeUpdateTest() throws IOException {
+        ObjectStore store = new ObjectStore(tmp.newFolder("trees"));
+        TreeMap<String, String> all = files("a.txt", id("a"),
+                "d/b.txt", id("b"), "d/e/c.txt", id("c"));
+        String root = Tree.update(store, null, all);
+        assertEquals(all, flatten(store, root));
+        Tree tree = Tree.read(store, root);
+        assertEquals(id("c"), tree.find("d/e/c.txt"));
+        assertNull(tree.find("d/e"));
+        assertNull(tree.find("d/x.txt"));
+        assertNull(tree.find("x/c.txt"));
+        assertEquals(root, Tree.update(store, root, files()));
+
+        String partial = Tree.update(store, null,
+                files("a.txt", id("old"), "d/e/c.txt", id("c")));
+        assertEquals(root, Tree.update(store, partial,
+                files("a.txt", id("a"), "d/b.txt", id("b"))));
+
+        String smaller = Tree.update(store, root,
+                files("a.txt", id("new"), "d/e/c.txt", null));
+        assertEquals(files("a.txt", id("new"), "d/b.txt", id("b")),
+                flatten(store, smaller));
+        assertEquals(Tree.update(store, null,
+                files("a.txt", id("new"), "d/b.txt", id("b"))), smaller);
+
+        String empty = Tree.update(store, smaller,
+                files("a.txt", null, "d/b.txt", null));
+        assertTrue(Tree.read(store, empty).isEmpty());
+        assertEquals(Tree.update(store, null, files()), empty);
+    }
+
+    /** Tests that diffing trees finds added, changed and removed files,
+     *  without reading subtrees that are the same in both. */
+    @Test
+    public void treeDiffTest() throws IOException {
+        ObjectStore store = new ObjectStore(tmp.newFolder("trees"));
+        String from = Tree.update(store, null, files("a.txt", id("a"),
+                "d/b.txt", id("b"), "s/x.txt", id("x"), "s/t/y.txt", id("y")));
+        String to = Tree.update(store, from, files("a.txt", id("a2"),
+                "d/b.txt", null, "n/c.txt", id("c")));
+        String same = Tree.update(store, null,
+                files("x.txt", id("x"), "t/y.txt", id("y")));
+        assertTrue(store.getLooseFile(same).delete());
+
+        Map<String, String> changed = new TreeMap<String, String>();
+        Tree.diff(store, from, to, "", changed);
+        Map<String, String> expected = files("a.txt", id("a2"),
+                "n/c.txt", id("c"));
+        expected.put("d/b.txt", null);
+        assertEquals(expected, changed);
+
+        changed.clear();
+        Tree.diff(store, to, from, "", changed);
+        expected = files("a.txt", id("a"), "d/b.txt", id("b"));
+        expected.put("n/c.txt", null);
+        assertEquals(expected, changed);
+
+        changed.clear();
+        Tree.diff(store, from, from, "", changed);
+        assertTrue(changed.isEmpty());
+    }
+
+    /** Tests that a file can be replaced by a directory of the same
+     *  name and back, and that diffs between the two name both. */
+    @Test
+    public void treeFileToDirectoryTest() throws IOException {
+        ObjectStore store = new ObjectStore(tmp.newFolder("trees"));
+        String file = Tree.update(store, null,
+                files("a", id("a"), "b", id("b")));
+        TreeMap<String, String> toDir = files("a/c", id("c"));
+        toDir.put("a", null);
+        String dir = Tree.update(store, file, toDir);
+        assertEquals(files("a/c", id("c"), "b", id("b")),
+                flatten(store, dir));
+
+        Map<String, String> changed = new TreeMap<String, String>();
+        Tree.diff(store, file, dir, "", changed);
+        assertEquals(toDir, changed);
+
+        TreeMap<String, String> toFile = files("a", id("a"));
+        toFile.put("a/c", null);
+        changed.clear();
+        Tree.diff(store, dir, file, "", changed);
+        assertEquals(toFile, changed);
+        assertEquals(file, Tree.update(store, dir, toFile));
+    }
+
+    /** Tests that the commit cache counts hits and misses of repeated
+     *  lookups and evicts the least recently used commits once their
+     *  total weight exceeds its capacity. */
+    @Test
+    public void commitCacheTest() {
+        CommitCache cache = new CommitCache(4);
+        assertNull(cache.get(id("first")));
+        Commit first = new Commit("first", 1);
+        cache.put(id("first"), first);
+        for (int i = 0; i < 3; i += 1) {
+            assertSame(first, cache.get(id("first")));
+        }
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getWeight());
+
+        Commit files = new Commit("files", 2);
+        files.getTrackedFiles().add(new FileToShaMapping("a", id("a")));
+        files.getTrackedFiles().add(new FileToShaMapping("b", id("b")));
+        cache.put(id("files"), files);
+        assertEquals(4, cache.getWeight());
+        assertSame(first, cache.get(id("first")));
+        cache.put(id("second"), new Commit("second", 3));
+        assertNull(cache.get(id("files")));
+        assertSame(first, cache.get(id("first")));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getWeight());
+        assertEquals(5, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(4, cache.getCapacity());
+    }
+
+    /** Tests that a store written before sharding, with all loose
+     *  objects in one directory, is migrated when it is first used, so
+     *  that its objects are found by id and by prefix, and that it is
+     *  only migrated once. */
+    @Test
+    public void objectStoreMigrationTest() throws IOException {
+        File dir = tmp.newFolder("blobs");
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 20; i += 1) {
+            String id = Utils.sha1(object(i));
+            Files.write(new File(dir, id).toPath(), object(i));
+            ids.add(id);
+        }
+        File other = new File(dir, "other");
+        Files.write(other.toPath(), object(-1));
+
+        ObjectStore store = new ObjectStore(dir);
+        for (int i = 0; i < ids.size(); i += 1) {
+            String id = ids.get(i);
+            assertArrayEquals(object(i), store.read(id));
+            assertEquals(id, store.findByPrefix(id.substring(0, 6)));
+            File loose = store.getLooseFile(id);
+            assertEquals(new File(dir, id.substring(0, 2)),
+                    loose.getParentFile());
+            assertFalse(Files.getPosixFilePermissions(loose.toPath())
+                    .contains(PosixFilePermission.OWNER_WRITE));
+            assertFalse(new File(dir, id).exists());
+        }
+        assertTrue(new File(dir, "sharded").isFile());
+        assertTrue(other.isFile());
+        Collections.sort(ids);
+        assertEquals(ids, store.list());
+
+        String late = Utils.sha1(object(20));
+        Files.write(new File(dir, late).toPath(), object(20));
+        store = new ObjectStore(dir);
+        assertFalse(store.contains(late));
+        assertTrue(new File(dir, late).isFile());
+        assertTrue(store.contains(ids.get(0)));
+    }
+
+    /** Returns the contents of the Ith test object. */
+    private static byte[] object(int i) {
+        return ("object " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Tests that every object of a pack is found through its index and
+     *  read back, and that missing ids are not found. */
+    @Test
+    public void packFindTest() throws IOException {
+        ObjectStore store = new ObjectStore(tmp.newFolder("objects"));
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 300; i += 1) {
+            ids.add(store.write(object(i)));
+        }
+        PackFile pack = PackFile.write(tmp.newFolder("pack"), store, ids);
+        assertEquals(ids.size(), pack.size());
+        for (int i = 0; i < ids.size(); i += 1) {
+            int pos = pack.find(ids.get(i));
+            assertTrue(pos >= 0);
+            assertEquals(ids.get(i), pack.getId(pos));
+            assertArrayEquals(object(i), pack.read(pos));
+        }
+        assertEquals(-1, pack.find(id("missing")));
+        assertEquals(-1, pack.find(ids.get(0).substring(1)));
+        assertEquals(-1, pack.find(null));
+    }
+
+    /** Tests that findByPrefix returns all ids of a pack with a given
+     *  prefix, several for an ambiguous one, and none for a prefix that
+     *  is not hexadecimal. */
+    @Test
+    public void packFindByPrefixTest() throws IOException {
+        ObjectStore store = new ObjectStore(tmp.newFolder("objects"));
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 300; i += 1) {
+            ids.add(store.write(object(i)));
+        }
+        PackFile pack = PackFile.write(tmp.newFolder("pack"), store, ids);
+        List<String> sorted = new ArrayList<String>(ids);
+        Collections.sort(sorted);
+        assertEquals(sorted, pack.findByPrefix(""));
+
+        String ambiguous = null;
+        for (int i = 1; i < sorted.size() && ambiguous == null; i += 1) {
+            if (sorted.get(i).startsWith(sorted.get(i - 1).substring(0, 2))) {
+                ambiguous = sorted.get(i).substring(0, 2);
+            }
+        }
+        List<String> expected = new ArrayList<String>();
+        for (String id : sorted) {
+            if (id.startsWith(ambiguous)) {
+                expected.add(id);
+            }
+        }
+        assertTrue(expected.size() > 1);
+        assertEquals(expected, pack.findByPrefix(ambiguous));
+        assertEquals(expected.subList(0, 1),
+                pack.findByPrefix(expected.get(0)));
+        assertEquals(expected.subList(0, 1),
+                pack.findByPrefix(expected.get(0).substring(0, 12)));
+        assertTrue(pack.findByPrefix(id("missing")).isEmpty());
+
+        assertTrue(pack.findByPrefix("xyz").isEmpty());
+        assertTrue(pack.findByPrefix("g").isEmpty());
+        assertTrue(pack.findByPrefix(ambiguous.toUpperCase()
+                + "x").isEmpty());
+        assertTrue(pack.findByPrefix("-1").isEmpty());
+    }
+
+    /** Adds to GRAPH a commit with id id(NAME), timestamp TIME and the
+     *  commits named PARENTS as parents. */
+    private static void addCommit(CommitGraph graph, String name, long time,
+                                  String... parents) {
+        Commit comm = new Commit(name, time);
+        for (String parent : parents) {
+            comm.addParent(id(parent));
+        }
+        graph.add(id(name), comm);
+    }
+
+    /** Returns the ids of the commits named NAMES. */
+    private static List<String> ids(String... names) {
+        List<String> result = new ArrayList<String>();
+        for (String name : names) {
+            result.add(id(name));
+        }
+        return result;
+    }
+
+    /** Tests isAncestor and mergeBases on a history with a plain branch
+     *  and merge, also after the graph is written and read again. */
+    @Test
+    public void commitGraphTest() throws IOException {
+        File file = new File(tmp.getRoot(), "commit-graph");
+        ObjectStore commits = new ObjectStore(tmp.newFolder("commits"));
+        CommitGraph graph = new CommitGraph(file, commits);
+        addCommit(graph, "root", 0);
+        addCommit(graph, "a1", 1, "root");
+        addCommit(graph, "a2", 2, "a1");
+        addCommit(graph, "b1", 3, "root");
+        addCommit(graph, "merge", 4, "a2", "b1");
+        addCommit(graph, "a3", 5, "merge");
+
+        for (int round = 0; round < 2; round += 1) {
+            assertTrue(graph.isAncestor(id("root"), id("a3")));
+            assertTrue(graph.isAncestor(id("b1"), id("a3")));
+            assertTrue(graph.isAncestor(id("a2"), id("a2")));
+            assertFalse(graph.isAncestor(id("a3"), id("root")));
+            assertFalse(graph.isAncestor(id("a2"), id("b1")));
+            assertFalse(graph.isAncestor(id("b1"), id("a2")));
+
+            assertEquals(ids("root"), graph.mergeBases(id("a2"), id("b1")));
+            assertEquals(ids("a1"), graph.mergeBases(id("a1"), id("a3")));
+            assertEquals(ids("b1"), graph.mergeBases(id("a3"), id("b1")));
+            assertEquals(ids("a3"), graph.mergeBases(id("a3"), id("a3")));
+
+            graph.write();
+            graph = new CommitGraph(file, commits);
+            assertEquals(6, graph.size());
+        }
+    }
+
+    /** Tests that mergeBases returns both best common ancestors of a
+     *  criss-cross merge, and only those. */
+    @Test
+    public void commitGraphCrissCrossTest() throws IOException {
+        CommitGraph graph = new CommitGraph(
+                new File(tmp.getRoot(), "commit-graph"),
+                new ObjectStore(tmp.newFolder("commits")));
+        addCommit(graph, "root", 0);
+        addCommit(graph, "a1", 1, "root");
+        addCommit(graph, "b1", 2, "root");
+        addCommit(graph, "a2", 3, "a1", "b1");
+        addCommit(graph, "b2", 4, "b1", "a1");
+        addCommit(graph, "a3", 5, "a2");
+
+        assertEquals(ids("b1", "a1"), graph.mergeBases(id("a2"), id("b2")));
+        assertEquals(ids("b1", "a1"), graph.mergeBases(id("b2"), id("a3")));
+        assertTrue(graph.isAncestor(id("a1"), id("b2")));
+        assertTrue(graph.isAncestor(id("b1"), id("a3")));
+        assertFalse(graph.isAncestor(id("a2"), id("b2")));
+        assertFalse(graph.isAncestor(id("b2"), id("a3")));
+
+        addCommit(graph, "c", 6, "a3", "b2");
+        assertEquals(ids("b2"), graph.mergeBases(id("c"), id("b2")));
+        assertEquals(ids("a2"), graph.mergeBases(id("a2"), id("c")));
+    }
+
+    /** Runs gitlet with arguments ARGS in directory DIR in a new JVM
+     *  and returns its output. */
+    private static String gitlet(File dir, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java")
+                .getPath());
+        List<String> classPath = new ArrayList<String>();
+        for (String entry : System.getProperty("java.class.path")
+                .split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath());
+        }
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, classPath));
+        command.add("gitlet.Main");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertEquals(output, 0, process.waitFor());
+        return output;
+    }
+
+    /** Returns the contents of FILE. */
+    private static String readFile(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    /** Tests that reset to the head commit discards changes to tracked
+     *  working files and restores deleted ones, as the files it would
+     *  not otherwise write are compared with the commit through the
+     *  index. */
+    @Test
+    public void resetLocalChangesTest() throws Exception {
+        File dir = tmp.newFolder("repo");
+        File a = new File(dir, "a.txt"), b = new File(dir, "b.txt");
+        gitlet(dir, "init");
+        writeFile(a, "a", 60000);
+        writeFile(b, "b", 60000);
+        gitlet(dir, "add", "a.txt", "b.txt");
+        gitlet(dir, "commit", "two files");
+        String head = gitlet(dir, "log").split("\\s+")[2];
+
+        writeFile(a, "dirty", 0);
+        assertTrue(b.delete());
+        gitlet(dir, "reset", head);
+        assertEquals("a", readFile(a));
+        assertEquals("b", readFile(b));
+        assertFalse(gitlet(dir, "status").contains("(modified)"));
+    }
+
+    /** Tests that a commit listing its tracked files directly, as those
+     *  written before tree objects do, is converted to the same nested
+     *  trees a new commit would get, and checked out from them. */
+    @Test
+    public void legacyCommitTreeTest() throws Exception {
+        File dir = tmp.newFolder("repo");
+        gitlet(dir, "init");
+        File gitletDir = new File(dir, ".gitlet");
+        ObjectStore blobs = new ObjectStore(new File(gitletDir, "blobs"));
+        ObjectStore commits = new ObjectStore(new File(gitletDir, "commits"));
+        File mgmtFile = new File(gitletDir, "Management");
+        Management mgmt = Management.decode(Utils.readContents(mgmtFile));
+
+        Commit legacy = new Commit("legacy", 1000);
+        legacy.addParent(mgmt.getHeadCommit());
+        TreeMap<String, String> tracked = new TreeMap<String, String>();
+        for (String name : Arrays.asList("a.txt", "d/b.txt", "d/e/c.txt")) {
+            String blob = blobs.write(name.getBytes(StandardCharsets.UTF_8));
+            legacy.getTrackedFiles().add(new FileToShaMapping(name, blob));
+            tracked.put(name, blob);
+        }
+        String head = commits.write(legacy.encode());
+        mgmt.updateBranch("master", head);
+        mgmt.setHead(head);
+        Utils.writeContents(mgmtFile, mgmt.encode());
+
+        gitlet(dir, "reset", head);
+        for (String name : tracked.keySet()) {
+            assertEquals(name, readFile(new File(dir, name)));
+        }
+        ObjectStore trees = new ObjectStore(tmp.newFolder("trees"));
+        String root = Tree.update(trees, null, tracked);
+        ObjectStore repoTrees = new ObjectStore(new File(gitletDir, "trees"));
+        assertTrue(repoTrees.contains(root));
+        assertEquals(tracked, flatten(repoTrees, root));
+
+        writeFile(new File(dir, "d/b.txt"), "changed", 0);
+        gitlet(dir, "checkout", "--", "d/b.txt");
+        assertEquals("d/b.txt", readFile(new File(dir, "d/b.txt")));
+    }
+
+    /** Writes CONTENTS to FILE and sets its modification time to AGO
+     *  milliseconds before now. */
+    private static void writeFile(File file, String contents, long ago)
+            throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file.toPath(),
+                FileTime.fromMillis(System.currentTimeMillis() - ago));
+    }
+
+    /** Tests that the hash of a file modified just before it is hashed
+     *  is not cached, also not in the index file, while the hash of an
+     *  older file is, that changes are still noticed, and that cached
+     *  files are still stored in a store that lacks them. */
+    @Test
+    public void indexRacyTest() throws IOException {
+        File indexFile = new File(tmp.getRoot(), "index");
+        File racy = tmp.newFile("racy.txt");
+        File old = tmp.newFile("old.txt");
+        writeFile(racy, "racy", 0);
+        writeFile(old, "old", 60000);
+
+        String racyPath = racy.getPath(), oldPath = old.getPath();
+        String gonePath = new File(tmp.getRoot(), "gone.txt").getPath();
+        List<String> paths = Arrays.asList(racyPath, oldPath, gonePath);
+        Index index = Index.read(indexFile);
+        Map<String, String> hashes = index.hashAll(paths, 1);
+        assertEquals(ObjectStore.hash(racy), hashes.get(racyPath));
+        assertEquals(ObjectStore.hash(old), hashes.get(oldPath));
+        assertFalse(hashes.containsKey(gonePath));
+        assertFalse(index.isCached(racyPath));
+        assertTrue(index.isCached(oldPath));
+        index.write();
+
+        index = Index.read(indexFile);
+        assertFalse(index.isCached(racyPath));
+        assertTrue(index.isCached(oldPath));
+
+        writeFile(racy, "RACY", 0);
+        writeFile(old, "OLD", 60000);
+        hashes = index.hashAll(paths, 2);
+        assertEquals(ObjectStore.hash(racy), hashes.get(racyPath));
+        assertEquals(ObjectStore.hash(old), hashes.get(oldPath));
+        assertFalse(index.isCached(racyPath));
+        assertTrue(index.isCached(oldPath));
+
+        ObjectStore store = new ObjectStore(tmp.newFolder("blobs"));
+        writeFile(racy, "RACY", 60000);
+        hashes = index.hashAll(paths, store, 1);
+        assertTrue(index.isCached(racyPath));
+        assertTrue(store.contains(hashes.get(racyPath)));
+        assertTrue(store.contains(hashes.get(oldPath)));
+        assertEquals(ObjectStore.hash(racy), hashes.get(racyPath));
+    }
+
 }
 
 
@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Workers class for gitlet. Runs independent tasks, such as copying
+ *  or hashing files, on a bounded pool of threads and waits for all of
+ *  them before returning.
+ *  @author Philipp
+ */
+class Workers {
+
+    /** Returns the number of threads configured by system property
+     *  PROPERTY, which defaults to the number of available processors. */
+    static int parallelism(String property) {
+        int n = Integer.getInteger(property,
+                Runtime.getRuntime().availableProcessors());
+        return Math.max(1, n);
+    }
+
+    /** Runs TASKS on at most PARALLELISM threads and returns their
+     *  results in the order of TASKS. Every task is run, even after
+     *  another has failed, and all are finished before this returns.
+     *  If any of them failed, the failure of the first such task in
+     *  TASKS is rethrown, whatever the number of threads. */
+    static <T> List<T> invokeAll(List<Callable<T>> tasks, int parallelism)
+            throws IOException {
+        List<T> results = new ArrayList<T>();
+        if (parallelism <= 1 || tasks.size() <= 1) {
+            Exception failure = null;
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception excp) {
+                    if (failure == null) {
+                        failure = excp;
+                    }
+                    results.add(null);
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IllegalArgumentException(failure.getMessage());
+            }
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(parallelism, tasks.size()), runnable -> {
+                    Thread thread = new Thread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            List<Future<T>> futures = pool.invokeAll(tasks);
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}